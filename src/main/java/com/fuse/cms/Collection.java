@@ -3,7 +3,12 @@ package com.fuse.cms;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -65,13 +70,20 @@ class CollectionLimit<T> extends CollectionExtension<T> {
 
   @Override
   protected void setup(){
-    getCollection().beforeAddTest.addListener((T newItem) -> {
-      if(getCollection().size() < this.amount)
+    getCollection().beforeAddTest().addListener((T newItem) -> {
+      // take items into account that are about to be added by an ongoing addAll
+      if(getCollection().getPendingSize() < this.amount)
         return true;
 
       // remove oldest item before accepting new item
       if(bFifo){
-        getCollection().remove(0);
+        // a single add replaces the oldest item in constant time
+        if(getCollection().evictFirstOnAdd())
+          return true;
+        if(getCollection().size() > 0)
+          getCollection().remove(0);
+        else if(!getCollection().dropPendingAdd())
+          return false;
         return true;
       }
 
@@ -79,8 +91,12 @@ class CollectionLimit<T> extends CollectionExtension<T> {
       return false;
     }, this);
 
-    while(getCollection().size() > amount){
-      getCollection().remove(bFifo ? 0 : getCollection().size()-1);
+    int size = getCollection().size();
+    if(size > amount){
+      if(bFifo)
+        getCollection().removeRange(0, size - amount);
+      else
+        getCollection().removeRange(amount, size);
     }
   }
 
@@ -88,7 +104,7 @@ class CollectionLimit<T> extends CollectionExtension<T> {
   protected void destroy(){
     CollectionBase<T> col = getCollection();
     if(col != null)
-      col.beforeAddTest.removeListeners(this);
+      col.beforeAddTest().removeListeners(this);
 
     super.destroy();
   }
@@ -118,25 +134,43 @@ class CollectionFilter<T> {
   public void addFilter(Predicate<T> filterFunc){
     filterFuncs.add(filterFunc);
 
-    // apply filter to current items in collection
+    // apply filter to current items in collection, removing all rejected items in one pass
+    List<T> rejected = new ArrayList<>();
     this.collection.each((T item) -> {
       if(!filterFunc.test(item))
-        this.collection.remove(item);
+        rejected.add(item);
     });
 
+    this.collection.removeAll(rejected);
+
     // register listener for items that get added later
-    this.collection.beforeAddTest.addListener(filterFunc, this);
+    this.collection.beforeAddTest().addListener(filterFunc, this);
   }
 
   public void removeFilter(Predicate<T> filterFunc){
-    this.collection.beforeAddTest.removeListener(filterFunc);
+    this.collection.beforeAddTest().removeListener(filterFunc);
     filterFuncs.remove(filterFunc);
   }
 };
 
+/**
+ * Keeps a collection synced with one or more source collections, as the set union of their items;
+ * every item is in the target once, as long as it's in any of the active sources
+ * (tracked using reference counts), no matter how many sources overlap
+ */
 class CollectionSyncer<T> {
+  /** the number of times an item is in the active sources */
+  private static class RefCount {
+    public int count;
+  }
+
   private CollectionBase<T> collection;
   private List<CollectionBase<T>> activeSources, stoppedSources;
+  /**
+   * keyed (by identity) on the items stored in the sources; the events of the sources
+   * report those items, even when an equal but different item was passed to remove
+   */
+  private Map<T, RefCount> refCounts;
   private boolean bActive;
 
   public CollectionSyncer(CollectionBase<T> collection){
@@ -145,6 +179,7 @@ class CollectionSyncer<T> {
     this.collection = collection;
     this.activeSources = new ArrayList<CollectionBase<T>>();
     this.stoppedSources = new ArrayList<CollectionBase<T>>();
+    this.refCounts = new IdentityHashMap<>();
   }
 
   public void start(){
@@ -192,28 +227,89 @@ class CollectionSyncer<T> {
       activeSources.add(col);
 
       // add all current items from source which are not already in target
-      col.each((T item) -> {
-        if(this.collection.indexOf(item) == -1)
+      List<T> items = new ArrayList<>();
+      col.each((T item) -> items.add(item));
+      addNew(items);
+
+      // register listeners that add new items added to source, also to target
+      col.addBatchEvent().addListener((List<T> batch) -> {
+        addNew(batch);
+      }, this);
+
+      col.addEvent().addListener((T item) -> {
+        // already processed by the batch listener
+        if(col.isDispatchingBatch())
+          return;
+        if(retain(item) && this.collection.identityIndexOf(item) == -1)
           this.collection.add(item);
-      });
+      }, this);
 
-      // register listener that adds new items added to source, also to target
-      col.addEvent.addListener((T item) -> {
-        this.collection.add(item);
+      // register listeners that remove each item from target that gets removed from source
+      col.removeBatchEvent().addListener((List<T> batch) -> {
+        List<T> released = new ArrayList<>();
+        for(T item : batch)
+          if(release(item))
+            released.add(item);
+        this.collection.removeAllIdentical(released);
       }, this);
 
-      // register listener that removes each item from target that gets removed from source
-      col.removeEvent.addListener((T item) -> {
-        if(this.collection.indexOf(item) != -1)
-          this.collection.remove(item);
+      col.removeEvent().addListener((T item) -> {
+        if(col.isDispatchingBatch())
+          return;
+        // only remove items that aren't in any of the other sources
+        if(release(item))
+          this.collection.removeIdentical(item);
       }, this);
   }
 
+  /** Counts the given items and adds the ones which weren't in any source and aren't already in the target, in a single operation */
+  private void addNew(List<T> items){
+    List<T> newItems = new ArrayList<>();
+
+    for(T item : items)
+      if(retain(item) && this.collection.identityIndexOf(item) == -1)
+        newItems.add(item);
+
+    this.collection.addAll(newItems);
+  }
+
+  /** @return true if the given item wasn't in any of the active sources yet */
+  private boolean retain(T item){
+    RefCount ref = refCounts.get(item);
+
+    if(ref == null){
+      ref = new RefCount();
+      refCounts.put(item, ref);
+    }
+
+    ref.count++;
+    return ref.count == 1;
+  }
+
+  /** @return true if the given item isn't in any of the active sources anymore */
+  private boolean release(T item){
+    RefCount ref = refCounts.get(item);
+    if(ref == null)
+      return false;
+
+    ref.count--;
+    if(ref.count > 0)
+      return false;
+
+    refCounts.remove(item);
+    return true;
+  }
+
   private void deactivate(CollectionBase<T> col){
     activeSources.remove(col);
     stoppedSources.add(col);
-    col.addEvent.removeListeners(this);
-    col.removeEvent.removeListeners(this);
+    col.addEvent().removeListeners(this);
+    col.removeEvent().removeListeners(this);
+    col.addBatchEvent().removeListeners(this);
+    col.removeBatchEvent().removeListeners(this);
+
+    // the synced items stay in the target, but no longer count as being in this source
+    col.each((T item) -> release(item));
   }
 
   public int size(){
@@ -226,40 +322,129 @@ class CollectionTransformerBase {
 
   public void start(){}
   public void stop(){}
+  /** virtual; re-runs the transformation of the given source item */
+  public void retransform(Object sourceItem){}
 }
 
 class CollectionTransformer<S,T> extends CollectionTransformerBase {
   class Link {
     public S source;
     public T target;
+    /** the link of the next occurrence of the same source item */
+    public Link next;
   }
 
   private CollectionBase<S> source;
   private CollectionBase<T> target;
-  private List<Link> links;
+  /** maps every source item to the link of its first occurrence */
+  private Map<S, Link> links;
   private Function<S,T> func;
   private boolean active;
 
   public CollectionTransformer(CollectionBase<S> source, CollectionBase<T> target, Function<S, T> func){
     this.source = source;
     this.target = target;
-    this.links = new ArrayList<>();
+    this.links = new IdentityHashMap<>();
     this.func = func;
     active = false;
 
-    source.each((S item) -> {
-      transform(item);
-    });
+    // every removal looks up the produced item in the target
+    target.usePositionIndex();
+
+    List<S> items = new ArrayList<>();
+    source.each((S item) -> items.add(item));
+    transformAll(items);
 
     start();
   }
 
-  private void transform(S item){
+  private Link link(S item){
     Link link = new Link();
     link.source = item;
     link.target = this.func.apply(item);
-    links.add(link);
-    target.add(link.target);
+
+    Link existing = links.putIfAbsent(item, link);
+
+    // the same item is in the source more than once; append to its chain
+    if(existing != null){
+      while(existing.next != null)
+        existing = existing.next;
+      existing.next = link;
+    }
+
+    return link;
+  }
+
+  /** @return The removed link of the first occurrence of the given source item, or null */
+  private Link unlink(S item){
+    Link link = links.remove(item);
+
+    if(link != null && link.next != null)
+      links.put(item, link.next);
+
+    return link;
+  }
+
+  private void transform(S item){
+    target.add(link(item).target);
+  }
+
+  private void transformAll(List<S> items){
+    List<T> targets = new ArrayList<>(items.size());
+
+    for(S item : items)
+      targets.add(link(item).target);
+
+    target.addAll(targets);
+  }
+
+  /** Removes the links of all given source items and their targets */
+  private void removeAll(List<S> items){
+    List<T> targets = new ArrayList<>(items.size());
+
+    // the source was cleared
+    if(source.isEmpty()){
+      for(Link link : links.values())
+        for(Link l = link; l != null; l = l.next)
+          targets.add(l.target);
+      links.clear();
+    } else {
+      for(S item : items){
+        Link link = unlink(item);
+        if(link != null)
+          targets.add(link.target);
+      }
+    }
+
+    target.removeAllIdentical(targets);
+  }
+
+  /**
+   * Re-runs the transformation for (all occurrences of) the given source item,
+   * and replaces the previously produced items in the target with the results.
+   * @param sourceItem The source item which changed
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void retransform(Object sourceItem){
+    for(Link l = links.get(sourceItem); l != null; l = l.next){
+      T newTarget = this.func.apply((S)sourceItem);
+      int idx = target.identityIndexOf(l.target);
+
+      if(idx == -1){
+        target.add(newTarget);
+      } else {
+        // set returns null when the target's beforeAddTest rejected the new item (or when it was queued)
+        boolean replaced = target.set(idx, newTarget) != null || target.isLocked()
+          || (idx < target.size() && target.get(idx) == newTarget);
+
+        // don't leave the outdated item behind; like a rejected add, the link keeps the rejected item
+        if(!replaced)
+          target.removeIdentical(l.target);
+      }
+
+      l.target = newTarget;
+    }
   }
 
   @Override
@@ -267,25 +452,509 @@ class CollectionTransformer<S,T> extends CollectionTransformerBase {
     if(active)
       return;
 
-    source.addEvent.addListener((S sourceItem) -> {
+    source.addBatchEvent().addListener((List<S> sourceItems) -> {
+      this.transformAll(sourceItems);
+    }, this);
+
+    source.removeBatchEvent().addListener((List<S> sourceItems) -> {
+      this.removeAll(sourceItems);
+    }, this);
+
+    source.addEvent().addListener((S sourceItem) -> {
+      // already processed by the batch listener
+      if(source.isDispatchingBatch())
+        return;
       this.transform(sourceItem);
     }, this);
 
-    source.removeEvent.addListener((S sourceItem) -> {
-      Link foundLink = null;
-      for(Link l : links){
-        if(l.source == sourceItem){
-          foundLink = l;
-          break;
-        }
+    source.removeEvent().addListener((S sourceItem) -> {
+      if(source.isDispatchingBatch())
+        return;
+
+      Link link = unlink(sourceItem);
+
+      if(link != null)
+        target.removeIdentical(link.target);
+    }, this);
+
+    active = true;
+  }
+
+  @Override
+  public void stop(){
+    if(!active)
+      return;
+
+    source.addEvent().removeListeners(this);
+    source.removeEvent().removeListeners(this);
+    source.addBatchEvent().removeListeners(this);
+    source.removeBatchEvent().removeListeners(this);
+    active = false;
+  }
+}
+
+
+/**
+ * Keeps a target collection sorted with the items of a source collection;
+ * new items are inserted at their position found by binary search, and
+ * (using retransform) a single item can be moved when its sort key changed.
+ * Subclasses that can copy the sort key of an item (see copyKey) let the sorter
+ * find moved items using binary search too.
+ */
+class CollectionSorter<T> extends CollectionTransformerBase {
+  private CollectionBase<T> source;
+  private CollectionBase<T> target;
+  private Comparator<T> comparator;
+  /** the number of occurrences of every item in the target, see watch/unwatch */
+  private Map<T, Integer> occurrences;
+  /** copies of the sort keys of the items in the target, from when they were positioned (see copyKey) */
+  private Map<T, T> keys;
+  private boolean active;
+
+  public CollectionSorter(CollectionBase<T> source, CollectionBase<T> target, Comparator<T> comparator){
+    this.source = source;
+    this.target = target;
+    this.comparator = comparator;
+    this.occurrences = new IdentityHashMap<>();
+    this.keys = new IdentityHashMap<>();
+    active = false;
+  }
+
+  /** Populates the target and starts listening to the source; called after construction, so subclasses can initialize first */
+  public void setup(){
+    List<T> items = new ArrayList<>();
+    source.each((T item) -> items.add(item));
+    insertAll(items);
+    start();
+  }
+
+  /** virtual; called when the given item enters the target (and not when it's already in there) */
+  protected void watch(T item){}
+
+  /** virtual; called when the last occurrence of the given item leaves the target */
+  protected void unwatch(T item){}
+
+  /**
+   * virtual; gives a copy of the given item with the values its sort order depends on.
+   * The sorter keeps the copy from when the item was positioned, so it can still find the item
+   * using binary search after its sort key changed.
+   * @param item The item to copy
+   * @param previousCopy The previous copy of the item (or null), which can be updated and returned instead of creating a new copy
+   * @return The copy, or null (the default) when items can't be copied; then finding an item whose sort key changed takes a linear scan
+   */
+  protected T copyKey(T item, T previousCopy){
+    return null;
+  }
+
+  /** @return The (copy of the) item as it was when it was positioned in the target */
+  private T keyOf(T item){
+    if(keys.isEmpty())
+      return item;
+
+    T key = keys.get(item);
+    return key == null ? item : key;
+  }
+
+  /** Remembers the current sort key of the given item */
+  private void positioned(T item){
+    T key = copyKey(item, keys.get(item));
+    if(key != null)
+      keys.put(item, key);
+  }
+
+  private void added(T item){
+    Integer count = occurrences.get(item);
+    occurrences.put(item, count == null ? 1 : count+1);
+
+    if(count == null){
+      positioned(item);
+      // start takes care of watching the items when we're not active
+      if(active)
+        watch(item);
+    }
+  }
+
+  private void removed(T item){
+    Integer count = occurrences.get(item);
+    if(count == null)
+      return;
+
+    if(count > 1){
+      occurrences.put(item, count-1);
+      return;
+    }
+
+    occurrences.remove(item);
+    keys.remove(item);
+    if(active)
+      unwatch(item);
+  }
+
+  // the items in the target are in the order of their sort keys from when they were positioned,
+  // so the searches below compare those, in case an item changed but wasn't retransformed yet
+
+  /** @return The position after all items that come before (or are equal to) the given item */
+  private int insertionPoint(T item){
+    int lo = 0, hi = target.size();
+
+    while(lo < hi){
+      int mid = (lo + hi) >>> 1;
+      if(comparator.compare(keyOf(target.get(mid)), item) <= 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+
+    return lo;
+  }
+
+  /** @return The position of the given item in the target, or -1 */
+  private int find(T item){
+    T key = keyOf(item);
+    int size = target.size();
+    int lo = 0, hi = size;
+
+    while(lo < hi){
+      int mid = (lo + hi) >>> 1;
+      if(comparator.compare(keyOf(target.get(mid)), key) < 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+
+    for(int idx=lo; idx<size && comparator.compare(keyOf(target.get(idx)), key) == 0; idx++)
+      if(target.get(idx) == item)
+        return idx;
+
+    // the sort key of the item changed since it was positioned, and no copy of it was kept
+    for(int idx=0; idx<size; idx++)
+      if(target.get(idx) == item)
+        return idx;
+
+    return -1;
+  }
+
+  private boolean isInOrder(int idx){
+    T item = target.get(idx);
+    return (idx == 0 || comparator.compare(keyOf(target.get(idx-1)), item) <= 0)
+      && (idx == target.size()-1 || comparator.compare(item, keyOf(target.get(idx+1))) <= 0);
+  }
+
+  private void insert(T item){
+    target.add(insertionPoint(item), item);
+    added(item);
+  }
+
+  private void insertAll(List<T> items){
+    if(items.isEmpty())
+      return;
+
+    List<T> sortedItems = new ArrayList<>(items);
+    sortedItems.sort(comparator);
+
+    if(target.isEmpty()){
+      target.addAll(sortedItems);
+    } else if(!target.isLocked()){
+      target.mergeAll(sortedItems, (T existing, T item) -> comparator.compare(keyOf(existing), item));
+    } else {
+      // the additions are queued; insert every run of items that belong at the same position with a
+      // single operation, iterating backwards keeps the insertion points of the remaining runs valid
+      int end = sortedItems.size();
+      while(end > 0){
+        int pos = insertionPoint(sortedItems.get(end-1));
+        int start = end-1;
+        while(start > 0 && insertionPoint(sortedItems.get(start-1)) == pos)
+          start--;
+        target.addAll(pos, sortedItems.subList(start, end));
+        end = start;
+      }
+    }
+
+    for(T item : items)
+      added(item);
+  }
+
+  private void remove(T item){
+    int idx = find(item);
+    if(idx == -1)
+      return;
+
+    target.removeRange(idx, idx+1);
+    removed(item);
+  }
+
+  /**
+   * Moves (all occurrences of) the given item to its new position, if its sort key changed
+   * @param sourceItem The item that changed
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void retransform(Object sourceItem){
+    T item = (T)sourceItem;
+    Integer count = occurrences.get(item);
+    if(count == null)
+      return;
+
+    int idx = find(item);
+    if(idx == -1)
+      return;
+
+    if(count == 1 && isInOrder(idx)){
+      positioned(item);
+      return;
+    }
+
+    target.removeRange(idx, idx+1);
+
+    for(int i=1; i<count; i++){
+      idx = find(item);
+      if(idx != -1)
+        target.removeRange(idx, idx+1);
+    }
+
+    positioned(item);
+    int pos = insertionPoint(item);
+    for(int i=0; i<count; i++)
+      target.add(pos, item);
+  }
+
+  @Override
+  public void start(){
+    if(active)
+      return;
+
+    source.addBatchEvent().addListener((List<T> items) -> {
+      this.insertAll(items);
+    }, this);
+
+    source.removeBatchEvent().addListener((List<T> items) -> {
+      // the source was cleared
+      if(source.isEmpty()){
+        List<T> watched = new ArrayList<>(occurrences.keySet());
+        occurrences.clear();
+        keys.clear();
+        target.clear();
+        for(T item : watched)
+          unwatch(item);
+        return;
       }
 
-      if(foundLink != null){
-        target.remove(foundLink.target);
-        links.remove(foundLink);
+      for(T item : items)
+        this.remove(item);
+    }, this);
+
+    source.addEvent().addListener((T item) -> {
+      // already processed by the batch listener
+      if(source.isDispatchingBatch())
+        return;
+      this.insert(item);
+    }, this);
+
+    source.removeEvent().addListener((T item) -> {
+      if(source.isDispatchingBatch())
+        return;
+      this.remove(item);
+    }, this);
+
+    // restarted; resume watching the current items
+    for(T item : occurrences.keySet())
+      watch(item);
+
+    active = true;
+  }
+
+  @Override
+  public void stop(){
+    if(!active)
+      return;
+
+    source.addEvent().removeListeners(this);
+    source.removeEvent().removeListeners(this);
+    source.addBatchEvent().removeListeners(this);
+    source.removeBatchEvent().removeListeners(this);
+
+    for(T item : occurrences.keySet())
+      unwatch(item);
+
+    active = false;
+  }
+}
+
+
+/**
+ * Distributes the items of a source collection over group collections,
+ * routing every added or removed item directly to its group by hashing its key.
+ */
+class CollectionGrouper<T, K> extends CollectionTransformerBase {
+  /** the group key of an item in the source and the number of times it's in there */
+  private class Entry {
+    public K key;
+    public int count;
+  }
+
+  private CollectionBase<T> source;
+  private Function<T, K> keyFunc;
+  private Map<K, Collection<T>> groups;
+  private Map<T, Entry> entries;
+  private boolean active;
+
+  public CollectionGrouper(CollectionBase<T> source, Function<T, K> keyFunc){
+    this.source = source;
+    this.keyFunc = keyFunc;
+    this.groups = new LinkedHashMap<>();
+    this.entries = new IdentityHashMap<>();
+    active = false;
+  }
+
+  /** Populates the groups and starts listening to the source; called after construction, so subclasses can initialize first */
+  public void setup(){
+    List<T> items = new ArrayList<>();
+    source.each((T item) -> items.add(item));
+    addAll(items);
+    start();
+  }
+
+  public Map<K, Collection<T>> getGroups(){
+    return groups;
+  }
+
+  /** virtual; creates the collection for a new group */
+  protected Collection<T> createGroup(){
+    return new Collection<T>();
+  }
+
+  /** virtual; called when the given item enters the source (and not when it's already in there) */
+  protected void watch(T item){}
+
+  /** virtual; called when the last occurrence of the given item leaves the source */
+  protected void unwatch(T item){}
+
+  private Collection<T> group(K key){
+    Collection<T> group = groups.get(key);
+
+    if(group == null){
+      group = createGroup();
+      // items are removed from groups by identity
+      group.usePositionIndex();
+      groups.put(key, group);
+    }
+
+    return group;
+  }
+
+  /** Registers the given item and @return its group key */
+  private K added(T item){
+    Entry entry = entries.get(item);
+
+    if(entry == null){
+      entry = new Entry();
+      entry.key = keyFunc.apply(item);
+      entries.put(item, entry);
+      // start takes care of watching the items when we're not active
+      if(active)
+        watch(item);
+    }
+
+    entry.count++;
+    return entry.key;
+  }
+
+  private void add(T item){
+    group(added(item)).add(item);
+  }
+
+  private void addAll(List<T> items){
+    Map<K, List<T>> batches = new LinkedHashMap<>();
+
+    for(T item : items)
+      batches.computeIfAbsent(added(item), (K key) -> new ArrayList<T>()).add(item);
+
+    for(Map.Entry<K, List<T>> batch : batches.entrySet())
+      group(batch.getKey()).addAll(batch.getValue());
+  }
+
+  private void remove(T item){
+    Entry entry = entries.get(item);
+    if(entry == null)
+      return;
+
+    entry.count--;
+    if(entry.count == 0){
+      entries.remove(item);
+      if(active)
+        unwatch(item);
+    }
+
+    groups.get(entry.key).removeIdentical(item);
+  }
+
+  /**
+   * Moves (all occurrences of) the given item to another group, if its group key changed
+   * @param sourceItem The item that changed
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void retransform(Object sourceItem){
+    T item = (T)sourceItem;
+    Entry entry = entries.get(item);
+    if(entry == null)
+      return;
+
+    K key = keyFunc.apply(item);
+    if(key == null ? entry.key == null : key.equals(entry.key))
+      return;
+
+    Collection<T> from = groups.get(entry.key);
+    Collection<T> to = group(key);
+    entry.key = key;
+
+    for(int i=0; i<entry.count; i++){
+      from.removeIdentical(item);
+      to.add(item);
+    }
+  }
+
+  @Override
+  public void start(){
+    if(active)
+      return;
+
+    source.addBatchEvent().addListener((List<T> items) -> {
+      this.addAll(items);
+    }, this);
+
+    source.removeBatchEvent().addListener((List<T> items) -> {
+      // the source was cleared
+      if(source.isEmpty()){
+        for(T item : entries.keySet())
+          unwatch(item);
+        entries.clear();
+        for(Collection<T> group : groups.values())
+          group.clear();
+        return;
       }
+
+      for(T item : items)
+        this.remove(item);
+    }, this);
+
+    source.addEvent().addListener((T item) -> {
+      // already processed by the batch listener
+      if(source.isDispatchingBatch())
+        return;
+      this.add(item);
     }, this);
 
+    source.removeEvent().addListener((T item) -> {
+      if(source.isDispatchingBatch())
+        return;
+      this.remove(item);
+    }, this);
+
+    // restarted; resume watching the current items
+    for(T item : entries.keySet())
+      watch(item);
+
     active = true;
   }
 
@@ -294,13 +963,195 @@ class CollectionTransformer<S,T> extends CollectionTransformerBase {
     if(!active)
       return;
 
-    source.addEvent.removeListeners(this);
-    source.removeEvent.removeListeners(this);
+    source.addEvent().removeListeners(this);
+    source.removeEvent().removeListeners(this);
+    source.addBatchEvent().removeListeners(this);
+    source.removeBatchEvent().removeListeners(this);
+
+    for(T item : entries.keySet())
+      unwatch(item);
+
     active = false;
   }
 }
 
 
+/**
+ * Live filtered view of a source collection. Unlike a synced collection with an accept filter,
+ * the view re-tests a source item when it's retransformed and moves it into or out of the view accordingly
+ */
+class CollectionLiveFilter<T> extends CollectionTransformerBase {
+  /** the latest test result of an item in the source and the number of times it's in there */
+  private class Entry {
+    public boolean accepted;
+    public int count;
+  }
+
+  private CollectionBase<T> source;
+  private CollectionBase<T> target;
+  private Predicate<T> func;
+  private Map<T, Entry> entries;
+  private boolean active;
+
+  public CollectionLiveFilter(CollectionBase<T> source, CollectionBase<T> target, Predicate<T> func){
+    this.source = source;
+    this.target = target;
+    this.func = func;
+    this.entries = new IdentityHashMap<>();
+    active = false;
+
+    // items are removed from the view by identity
+    target.usePositionIndex();
+  }
+
+  /** Populates the view and starts listening to the source; called after construction, so subclasses can initialize first */
+  public void setup(){
+    List<T> items = new ArrayList<>();
+    source.each((T item) -> items.add(item));
+    addAll(items);
+    start();
+  }
+
+  /** virtual; called when the given item enters the source (and not when it's already in there) */
+  protected void watch(T item){}
+
+  /** virtual; called when the last occurrence of the given item leaves the source */
+  protected void unwatch(T item){}
+
+  /** Registers the given item and @return whether it's accepted into the view */
+  private boolean added(T item){
+    Entry entry = entries.get(item);
+
+    if(entry == null){
+      entry = new Entry();
+      entry.accepted = func.test(item);
+      entries.put(item, entry);
+      // start takes care of watching the items when we're not active
+      if(active)
+        watch(item);
+    }
+
+    entry.count++;
+    return entry.accepted;
+  }
+
+  private void add(T item){
+    if(added(item))
+      target.add(item);
+  }
+
+  private void addAll(List<T> items){
+    List<T> accepted = new ArrayList<>();
+
+    for(T item : items)
+      if(added(item))
+        accepted.add(item);
+
+    target.addAll(accepted);
+  }
+
+  private void remove(T item){
+    Entry entry = entries.get(item);
+    if(entry == null)
+      return;
+
+    entry.count--;
+    if(entry.count == 0){
+      entries.remove(item);
+      if(active)
+        unwatch(item);
+    }
+
+    if(entry.accepted)
+      target.removeIdentical(item);
+  }
+
+  /**
+   * Re-tests the given item and moves (all occurrences of) it into or out of the view, if the result changed
+   * @param sourceItem The item that changed
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void retransform(Object sourceItem){
+    T item = (T)sourceItem;
+    Entry entry = active ? entries.get(item) : null;
+    if(entry == null)
+      return;
+
+    boolean accepted = func.test(item);
+    if(accepted == entry.accepted)
+      return;
+
+    entry.accepted = accepted;
+
+    for(int i=0; i<entry.count; i++){
+      if(accepted)
+        target.add(item);
+      else
+        target.removeIdentical(item);
+    }
+  }
+
+  @Override
+  public void start(){
+    if(active)
+      return;
+
+    source.addBatchEvent().addListener((List<T> items) -> {
+      this.addAll(items);
+    }, this);
+
+    source.removeBatchEvent().addListener((List<T> items) -> {
+      // the source was cleared
+      if(source.isEmpty()){
+        for(T item : entries.keySet())
+          unwatch(item);
+        entries.clear();
+        target.clear();
+        return;
+      }
+
+      for(T item : items)
+        this.remove(item);
+    }, this);
+
+    source.addEvent().addListener((T item) -> {
+      // already processed by the batch listener
+      if(source.isDispatchingBatch())
+        return;
+      this.add(item);
+    }, this);
+
+    source.removeEvent().addListener((T item) -> {
+      if(source.isDispatchingBatch())
+        return;
+      this.remove(item);
+    }, this);
+
+    // restarted; resume watching the current items
+    for(T item : entries.keySet())
+      watch(item);
+
+    active = true;
+  }
+
+  @Override
+  public void stop(){
+    if(!active)
+      return;
+
+    source.addEvent().removeListeners(this);
+    source.removeEvent().removeListeners(this);
+    source.addBatchEvent().removeListeners(this);
+    source.removeBatchEvent().removeListeners(this);
+
+    for(T item : entries.keySet())
+      unwatch(item);
+
+    active = false;
+  }
+}
+
 public class Collection<T> extends CollectionBase<T> {
 
   private List<CollectionExtension<T>> extensions = null;
@@ -350,8 +1201,13 @@ public class Collection<T> extends CollectionBase<T> {
     return this.loadJsonFromFile(filePath);
   }
 
-  // public Collection(){
-  // }
+  public Collection(){
+  }
+
+  /** @param bLazyEvents Creates the events lazily when true (see CollectionBase(boolean)) */
+  public Collection(boolean bLazyEvents){
+    super(bLazyEvents);
+  }
 
   /**
    * The accept method creates a filter that only lets items into our
@@ -389,8 +1245,11 @@ public class Collection<T> extends CollectionBase<T> {
 
   /// copy content of sourceCollection and register listener to copy future items added to sourceCollection
   public CollectionSyncer<T> sync(CollectionBase<T> sourceCollection, boolean active){
-    if(colSyncer == null)
+    if(colSyncer == null){
       colSyncer = new CollectionSyncer<T>(this);
+      // the syncer looks up every source item in this collection
+      usePositionIndex();
+    }
 
     colSyncer.addSource(sourceCollection);
 
@@ -446,7 +1305,7 @@ public class Collection<T> extends CollectionBase<T> {
     // run for all current events
     this.each(func);
     // register listener to run for all future events
-    this.addEvent.addListener(func, owner);
+    this.addEvent().addListener(func, owner);
   }
 
   /**
@@ -455,8 +1314,8 @@ public class Collection<T> extends CollectionBase<T> {
    * @param owner The owner who's listeners we want to remove
    */
   public void stopWithAll(Object owner){
-    System.out.println("Collection.stopWithAll is DEPRECATED, call addEvent.removeListeners directly.");
-    this.addEvent.removeListeners(owner);
+    System.out.println("Collection.stopWithAll is DEPRECATED, call addEvent().removeListeners directly.");
+    this.addEvent().removeListeners(owner);
   }
 
   public void forAll(Consumer<T> func, Object owner){
@@ -478,28 +1337,127 @@ public class Collection<T> extends CollectionBase<T> {
 
   public <U> Collection<U> transform(Function<T, U> func, Object owner){
     Collection<U> target = new Collection<U>();
-    CollectionTransformer<T, U> transformer = new CollectionTransformer<>(this, target, func);
+    addTransformer(new CollectionTransformer<>(this, target, func), owner);
+    return target;
+  }
+
+  protected void addTransformer(CollectionTransformerBase transformer, Object owner){
     transformer.owner = owner;
     if(collectionTransformers == null)
       collectionTransformers = new ArrayList<>();
     collectionTransformers.add(transformer);
+  }
+
+  /**
+   * Creates a live view of this collection, sorted using the given comparator.
+   * Items added to this collection are inserted at their sorted position (using binary search)
+   * and removed items are removed from the view. When the sort key of an item changes,
+   * call retransform with that item to move it to its new position.
+   *
+   * @param comparator Provides the sort order
+   * @return A new collection with the sorted content of this collection
+   */
+  public Collection<T> sorted(Comparator<T> comparator){
+    return sorted(comparator, null);
+  }
+
+  /**
+   * @param comparator Provides the sort order
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new collection with the sorted content of this collection
+   */
+  public Collection<T> sorted(Comparator<T> comparator, Object owner){
+    Collection<T> target = new Collection<T>();
+    CollectionSorter<T> sorter = new CollectionSorter<>(this, target, comparator);
+    sorter.setup();
+    addTransformer(sorter, owner);
+    return target;
+  }
+
+  /**
+   * Creates a live filtered view of this collection. Unlike the views created by filtered,
+   * which only test items when they're added, items are also re-tested when retransform
+   * is called with them (for example after they changed), moving them into or out of the view.
+   *
+   * @param func Predicate function that provides the filter-logic
+   * @return A new collection with the accepted content of this collection
+   */
+  public Collection<T> liveFiltered(Predicate<T> func){
+    return liveFiltered(func, null);
+  }
+
+  /**
+   * @param func Predicate function that provides the filter-logic
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new collection with the accepted content of this collection
+   */
+  public Collection<T> liveFiltered(Predicate<T> func, Object owner){
+    Collection<T> target = new Collection<T>();
+    CollectionLiveFilter<T> filter = new CollectionLiveFilter<>(this, target, func);
+    filter.setup();
+    addTransformer(filter, owner);
     return target;
   }
 
+  /**
+   * Re-runs the transformation of the given item for all transformed collections
+   * created using the transform method (for example after the item changed),
+   * replacing the previously transformed item in those collections.
+   * @param item The changed item
+   */
+  public void retransform(T item){
+    if(collectionTransformers == null)
+      return;
+
+    for(CollectionTransformerBase trans : collectionTransformers)
+      trans.retransform(item);
+  }
+
+  /**
+   * Stops and unregisters the transformers (see transform, sorted, liveFiltered and groupBy) of the given owner,
+   * so they're no longer updated or invoked by retransform
+   * @param owner The owner given when creating the transformed collections
+   */
   public void stopTransforms(Object owner){
     if(collectionTransformers == null)
       return;
 
-    for(CollectionTransformerBase trans : collectionTransformers){
-      if(trans.owner == owner){
-        trans.stop();
-      }
-    }
+    collectionTransformers.removeIf((CollectionTransformerBase trans) -> {
+      if(trans.owner != owner)
+        return false;
+      trans.stop();
+      return true;
+    });
 
     if(collectionTransformers.isEmpty())
       collectionTransformers = null;
   }
 
+  /**
+   * Creates live groups of the items in this collection; every item is routed
+   * to the group of the key given by keyFunc, no matter how many groups there are.
+   * Groups are created for new keys as necessary, and stay in the map when they become empty.
+   * When the group key of an item changes, call retransform with that item to move it to its new group.
+   *
+   * @param keyFunc Gives the group key of an item
+   * @return An unmodifiable map of group keys to group collections
+   */
+  public <K> Map<K, Collection<T>> groupBy(Function<T, K> keyFunc){
+    return groupBy(keyFunc, null);
+  }
+
+  /**
+   * @param keyFunc Gives the group key of an item
+   * @param owner Owner which can be used to stop the groups from updating using stopTransforms
+   * @return An unmodifiable map of group keys to group collections
+   */
+  public <K> Map<K, Collection<T>> groupBy(Function<T, K> keyFunc, Object owner){
+    CollectionGrouper<T, K> grouper = new CollectionGrouper<>(this, keyFunc);
+    grouper.setup();
+    addTransformer(grouper, owner);
+    return Collections.unmodifiableMap(grouper.getGroups());
+  }
+
   private CollectionLimit<T> getLimitExtension(){
     if(extensions == null)
       return null;
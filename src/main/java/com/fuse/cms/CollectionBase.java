@@ -2,11 +2,24 @@ package com.fuse.cms;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import com.fuse.utils.Event;
 import com.fuse.utils.Test;
@@ -16,23 +29,302 @@ class ColMod<T> {
   public Object removeItem = null;
   public boolean clear = false;
   public int removeIndex = -1;
+  /** when set, the items at removeIndex until this index are removed */
+  public int removeToIndex = -1;
+  public List<T> addItems = null;
+  /** position at which to insert the addItems, -1 to append */
+  public int addIndex = -1;
+  public List<Object> removeItems = null;
+  /** when set, the item at this position is replaced by the setItem */
+  public int setIndex = -1;
+  public T setItem = null;
+  /** when set, the removeItem or removeItems are compared by identity (see CollectionBase.removeIdentical) */
+  public boolean identical = false;
   // public boolean destroy = false;
 }
 
+/** Processes a range of indices, splitting it into chunks for the other threads of its ForkJoinPool */
+class ParallelPass extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  private int from, to, chunkSize;
+  private IntConsumer func;
+
+  public ParallelPass(int from, int to, int chunkSize, IntConsumer func){
+    this.from = from;
+    this.to = to;
+    this.chunkSize = chunkSize;
+    this.func = func;
+  }
+
+  @Override
+  protected void compute(){
+    if(to - from <= chunkSize){
+      for(int idx=from; idx<to; idx++)
+        func.accept(idx);
+      return;
+    }
+
+    int mid = (from + to) >>> 1;
+    invokeAll(new ParallelPass(from, mid, chunkSize, func), new ParallelPass(mid, to, chunkSize, func));
+  }
+}
+
+/**
+ * Index-based spliterator of a collection, which locks the collection while any part of it
+ * (including splits being traversed by other threads) is being traversed, so modifications
+ * made by the stream's operations are queued. The queued modifications are processed whenever
+ * no split is being traversed, which can be between two splits or, for short-circuiting operations
+ * that advance one item at a time, between two items; before that happens the remaining splits
+ * switch to a snapshot of the traversed items, so every item is still visited exactly once.
+ */
+class CollectionSpliterator<T> implements Spliterator<T> {
+  /** shared by a spliterator and all of its splits */
+  private static class Traversal {
+    /** the number of splits that are currently being traversed */
+    public int active = 0;
+    /** null until modifications are processed during the traversal; the items at the time the traversal started */
+    public Object[] snapshot = null;
+  }
+
+  private CollectionBase<T> collection;
+  private Traversal traversal;
+  private int index;
+  /** -1 until the spliterator is first used */
+  private int fence;
+
+  public CollectionSpliterator(CollectionBase<T> collection){
+    this(collection, new Traversal(), 0, -1);
+  }
+
+  private CollectionSpliterator(CollectionBase<T> collection, Traversal traversal, int index, int fence){
+    this.collection = collection;
+    this.traversal = traversal;
+    this.index = index;
+    this.fence = fence;
+  }
+
+  private int getFence(){
+    if(fence < 0)
+      fence = collection.size();
+    return fence;
+  }
+
+  /** @return The items being traversed; the snapshot if there is one */
+  private Object[] begin(){
+    synchronized(traversal){
+      if(traversal.active++ == 0){
+        collection.unwrapRing();
+        collection.beginLock();
+      }
+      return traversal.snapshot;
+    }
+  }
+
+  private void end(){
+    // other splits wait until the queued modifications are processed
+    synchronized(traversal){
+      if(--traversal.active > 0)
+        return;
+
+      // the positions of the (remaining) items are about to change
+      if(traversal.snapshot == null && collection.hasPendingMods())
+        traversal.snapshot = collection.toArray();
+
+      collection.endLock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T get(Object[] snapshot, int idx){
+    return snapshot == null ? collection.get(idx) : (T)snapshot[idx];
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action){
+    int hi = getFence();
+    Object[] snapshot = begin();
+
+    try {
+      if(index >= Math.min(hi, snapshot == null ? collection.size() : snapshot.length))
+        return false;
+
+      T item = get(snapshot, index++);
+      action.accept(item);
+      return true;
+    } finally {
+      end();
+    }
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super T> action){
+    int hi = getFence();
+    Object[] snapshot = begin();
+
+    try {
+      hi = Math.min(hi, snapshot == null ? collection.size() : snapshot.length);
+      while(index < hi){
+        T item = get(snapshot, index++);
+        action.accept(item);
+      }
+    } finally {
+      end();
+    }
+  }
+
+  @Override
+  public Spliterator<T> trySplit(){
+    int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+    if(lo >= mid)
+      return null;
+
+    index = mid;
+    return new CollectionSpliterator<T>(collection, traversal, lo, mid);
+  }
+
+  @Override
+  public long estimateSize(){
+    return Math.max(0, getFence() - index);
+  }
+
+  @Override
+  public int characteristics(){
+    return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+  }
+}
+
 public class CollectionBase<T> extends ArrayList<T> {
   private int lockCount = 0;
+  /** modifications made while locked; reused for subsequent locks */
   private List<ColMod<T>> modQueue = null;
+  /** maps items to their queued single-item add (or to null when the item is queued more than once), see queueRemove */
+  private IdentityHashMap<Object, ColMod<T>> queuedAdds = null;
+  /** position in the modQueue of the first mod that wasn't replayed yet */
+  private int modQueueStart = 0;
+  /** the items in this collection while it's locked (see lockedContains), compared by identity when bLockedItemsIdentical */
+  private Set<Object> lockedItems = null;
+  private boolean bLockedItemsIdentical = false;
+  /** the modCount when the lockedItems were collected */
+  private int lockedItemsModCount = 0;
+  private boolean bProcessingModQueue = false;
   /** null by default but can be set by caller using setInstantiator to be able to use the create method */
   private Supplier<T> instantiatorFunc = null;
 
-  public Event<T> addEvent;
-  public Event<T> removeEvent;
-  public Test<T> beforeAddTest;
+  /** null until first requested (using addEvent()) for collections created with lazy events */
+  public Event<T> addEvent = null;
+  /** null until first requested (using removeEvent()) for collections created with lazy events */
+  public Event<T> removeEvent = null;
+  /** null until first requested (using beforeAddTest()) for collections created with lazy events */
+  public Test<T> beforeAddTest = null;
+  /** lazily initialized, see addBatchEvent() */
+  private Event<List<T>> addBatchEvent = null;
+  /** lazily initialized, see removeBatchEvent() */
+  private Event<List<T>> removeBatchEvent = null;
+  /** true while the per-item events of a bulk operation are being triggered, see isDispatchingBatch */
+  private boolean bDispatchingBatch = false;
+  /** see setDispatchOnUpdate */
+  private boolean bDispatchOnUpdate = false;
+  /** deferred dispatch mode only; the items added or removed since the last flush, in order of their first change */
+  private List<T> deferredItems = null;
+  /** deferred dispatch mode only; maps the deferredItems to the number of times they were added minus removed */
+  private IdentityHashMap<T, Integer> deferredCounts = null;
+  /** only set during the beforeAddTest phase of addAll; the items that passed so far */
+  private List<T> pendingAdds = null;
+  /** only true during the beforeAddTest phase of set, which replaces an item instead of adding one */
+  private boolean bReplacing = false;
+
+  /** optional identity position index (see setIdentityIndex and usePositionIndex); maps items to the position of their first occurrence */
+  private IdentityHashMap<Object, Integer> positions = null;
+  /** see setIdentityIndex */
+  private boolean bIdentityIndex = false;
+  /** see usePositionIndex */
+  private boolean bPositionIndex = false;
+  /** the positions of all items before this position are indexed correctly, the rest is (re-)indexed lazily */
+  private int validPositions = 0;
+  /** used to detect modifications that bypassed the index (like sort or iterator.remove) */
+  private int indexedModCount = 0;
+
+  /**
+   * position of the first item in the backing array; only non-zero after a fifo limit
+   * replaced the oldest item in-place (see evictFirstOnAdd), which turns the backing array into a ring buffer
+   */
+  private int ringHead = 0;
+  /** only true during the beforeAddTest phase of add(item) */
+  private boolean bTestingAdd = false;
+  /** set by evictFirstOnAdd; the item being added replaces the first item */
+  private boolean bEvictFirst = false;
 
   public CollectionBase(){
-    addEvent = new Event<T>();
-    removeEvent = new Event<T>();
-    beforeAddTest = new Test<T>();
+    this(false);
+  }
+
+  /**
+   * Most collections are never observed; a collection with lazy events only creates its
+   * addEvent, removeEvent and beforeAddTest when they're first requested using the
+   * accessor methods (like addEvent()), which saves their memory when it isn't observed.
+   * The public fields (like addEvent) of such a collection are null until then.
+   *
+   * @param bLazyEvents Creates the events lazily when true
+   */
+  public CollectionBase(boolean bLazyEvents){
+    if(!bLazyEvents){
+      addEvent = new Event<T>();
+      removeEvent = new Event<T>();
+      beforeAddTest = new Test<T>();
+    }
+  }
+
+  /** @return The event that is triggered for every item added to this collection */
+  public Event<T> addEvent(){
+    if(addEvent == null)
+      addEvent = new Event<T>();
+    return addEvent;
+  }
+
+  /** @return The (lazily created) event that is triggered for every item removed from this collection */
+  public Event<T> removeEvent(){
+    if(removeEvent == null)
+      removeEvent = new Event<T>();
+    return removeEvent;
+  }
+
+  /** @return The (lazily created) test that every item has to pass before it is added to this collection */
+  public Test<T> beforeAddTest(){
+    if(beforeAddTest == null)
+      beforeAddTest = new Test<T>();
+    return beforeAddTest;
+  }
+
+  /**
+   * Triggered once by the bulk operations (addAll, add and addAll at an index) with all added items,
+   * before the addEvent is triggered for each of them. The list shouldn't be modified or kept by listeners.
+   * @return The (lazily created) event
+   */
+  public Event<List<T>> addBatchEvent(){
+    if(addBatchEvent == null)
+      addBatchEvent = new Event<List<T>>();
+    return addBatchEvent;
+  }
+
+  /**
+   * Triggered once by the bulk operations (removeAll, removeRange, clear) with all removed items,
+   * before the removeEvent is triggered for each of them. The list shouldn't be modified or kept by listeners.
+   * @return The (lazily created) event
+   */
+  public Event<List<T>> removeBatchEvent(){
+    if(removeBatchEvent == null)
+      removeBatchEvent = new Event<List<T>>();
+    return removeBatchEvent;
+  }
+
+  /**
+   * Listeners that process the batch events can use this to ignore
+   * the per-item add/remove events that follow the batch event
+   * @return true while the per-item events of a bulk operation are being triggered
+   */
+  public boolean isDispatchingBatch(){
+    return bDispatchingBatch;
   }
 
   public void destroy(){
@@ -45,30 +337,61 @@ public class CollectionBase<T> extends ArrayList<T> {
     //   return;
     // }
 
-    addEvent.destroy();
-    removeEvent.destroy();
-    beforeAddTest = new Test<T>();
+    if(addEvent != null)
+      addEvent.destroy();
+    if(removeEvent != null)
+      removeEvent.destroy();
+    if(addBatchEvent != null)
+      addBatchEvent.destroy();
+    if(removeBatchEvent != null)
+      removeBatchEvent.destroy();
+    if(beforeAddTest != null)
+      beforeAddTest = new Test<T>();
     instantiatorFunc = null;
     modQueue = null;
+    queuedAdds = null;
+    deferredItems = null;
+    deferredCounts = null;
 
     this.clear();
   }
 
   public boolean add(T item){
     if(isLocked()){
-      ColMod<T> m = new ColMod<T>();
-      m.addItem = item;
-      if(modQueue == null)
-        modQueue = new ArrayList<>();
-      modQueue.add(m);
+      queueAdd(item);
       return false;
     }
 
-    if(!beforeAddTest.test(item))
-      return false;
+    if(beforeAddTest != null){
+      boolean wasTestingAdd = bTestingAdd, wasEvictFirst = bEvictFirst;
+      bTestingAdd = true;
+      bEvictFirst = false;
+      boolean accepted = beforeAddTest.test(item);
+      boolean evict = bEvictFirst;
+      bTestingAdd = wasTestingAdd;
+      bEvictFirst = wasEvictFirst;
+
+      if(!accepted)
+        return false;
 
+      if(evict){
+        replaceFirst(item);
+        return true;
+      }
+    }
+
+    unwrapRing();
+    syncIndex();
     boolean result = super.add(item);
-    addEvent.trigger(item);
+
+    if(positions != null){
+      // the index is only extended directly when it's complete, otherwise the new item is indexed lazily
+      if(validPositions == size()-1)
+        indexNext();
+      indexedModCount = modCount;
+    }
+
+    triggerAdded(item);
     return result;
   }
 
@@ -81,36 +404,79 @@ public class CollectionBase<T> extends ArrayList<T> {
     return null;
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Removes the first occurrence of the given item and triggers the removeEvent
+   * with the item that was actually removed (which is equal, but not necessarily identical, to the given item)
+   */
   public boolean remove(Object item){
     if(isLocked()){
-      ColMod<T> m = new ColMod<T>();
-      m.removeItem = item;
-      if(modQueue == null)
-        modQueue = new ArrayList<>();
-      modQueue.add(m);
+      queueRemove(item, false);
       return false;
     }
 
-    boolean result = super.remove(item);
-    if(result)
-      removeEvent.trigger((T)item);
+    unwrapRing();
+    return removeAt(indexOf(item));
+  }
 
-    return result;
+  /**
+   * Like remove(Object), but compares items by identity, like the identity index does
+   * (regardless of whether the identity index is enabled).
+   * Used by the views that keep track of the exact items they added to their collection.
+   */
+  boolean removeIdentical(Object item){
+    if(isLocked()){
+      queueRemove(item, true);
+      return false;
+    }
+
+    unwrapRing();
+    return removeAt(identityIndexOf(item));
+  }
+
+  /** Removes the item at the given position (if not -1) from the (unwrapped) list and the index and triggers the removeEvent */
+  private boolean removeAt(int idx){
+    if(idx == -1)
+      return false;
+
+    syncIndex();
+    T item = super.remove(idx);
+
+    if(positions != null)
+      removedFromIndex(item, idx);
+
+    triggerRemoved(item);
+    return true;
   }
 
+  /**
+   * Removes all items in a single O(n) operation, then triggers removeBatchEvent once
+   * with all removed items, followed by a removeEvent for every removed item.
+   * The items are reported last-to-first. When locked, the operation is queued.
+   */
   public void clear(){
     if(isLocked()){
-      ColMod<T> m = new ColMod<T>();
-      m.clear = true;
-      if(modQueue == null)
-        modQueue = new ArrayList<>();
-      modQueue.add(m);
+      queueClear();
+      return;
+    }
+
+    if(isEmpty())
       return;
+
+    List<T> removed = null;
+
+    // nobody to notify? no need to collect the items
+    if(removeBatchEvent != null || removeEvent != null || bDispatchOnUpdate){
+      removed = new ArrayList<>(size());
+      for(int i=size()-1; i>=0; i--)
+        removed.add(get(i));
     }
 
-    for(int i=size()-1; i>=0; i--)
-      remove(get(i));
+    super.clear();
+    ringHead = 0;
+    resetIndex();
+
+    if(removed != null)
+      triggerRemovedBatch(removed);
   }
 
   public void each(Consumer<T> func){
@@ -139,6 +505,104 @@ public class CollectionBase<T> extends ArrayList<T> {
     });
   }
 
+  /**
+   * Like each, but processes the items using all threads of the common ForkJoinPool,
+   * in no particular order. The collection is locked during the pass, so modifications
+   * made by func (from any thread) are queued and processed afterwards, in no particular order.
+   * Note that func should be thread-safe.
+   *
+   * @param func The logic to run for every item
+   */
+  public void parallelEach(Consumer<T> func){
+    parallelEach(func, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param func The logic to run for every item
+   * @param pool The pool that runs the pass
+   */
+  public void parallelEach(Consumer<T> func, ForkJoinPool pool){
+    parallelPass(pool, (int idx) -> func.accept(get(idx)));
+  }
+
+  /**
+   * Transforms all items using all threads of the common ForkJoinPool (see parallelEach)
+   *
+   * @param func The transformation to run for every item
+   * @return A list with the transformed items, in the order of the original items
+   */
+  public <R> List<R> parallelMap(Function<T, R> func){
+    return parallelMap(func, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param func The transformation to run for every item
+   * @param pool The pool that runs the pass
+   * @return A list with the transformed items, in the order of the original items
+   */
+  @SuppressWarnings("unchecked")
+  public <R> List<R> parallelMap(Function<T, R> func, ForkJoinPool pool){
+    Object[] results = new Object[size()];
+    parallelPass(pool, (int idx) -> results[idx] = func.apply(get(idx)));
+
+    List<R> result = new ArrayList<>(results.length);
+    for(Object item : results)
+      result.add((R)item);
+    return result;
+  }
+
+  /**
+   * Tests all items using all threads of the common ForkJoinPool (see parallelEach)
+   *
+   * @param func The test to run for every item
+   * @return A list with the items that passed the test, in their original order
+   */
+  public List<T> parallelFilter(Predicate<T> func){
+    return parallelFilter(func, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param func The test to run for every item
+   * @param pool The pool that runs the pass
+   * @return A list with the items that passed the test, in their original order
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> parallelFilter(Predicate<T> func, ForkJoinPool pool){
+    int size = size();
+    // the items are captured during the (locked) pass, as func could queue modifications
+    // which are processed before we collect the results
+    Object[] items = new Object[size];
+    boolean[] passed = new boolean[size];
+
+    parallelPass(pool, (int idx) -> {
+      T item = get(idx);
+      items[idx] = item;
+      passed[idx] = func.test(item);
+    });
+
+    List<T> result = new ArrayList<>();
+    for(int idx=0; idx<size; idx++)
+      if(passed[idx])
+        result.add((T)items[idx]);
+    return result;
+  }
+
+  /** Runs func for every index while locked, spread over the threads of the given pool */
+  private void parallelPass(ForkJoinPool pool, IntConsumer func){
+    int size = size();
+    if(size == 0)
+      return;
+
+    // a few chunks per thread, so threads that finish early can steal work
+    int chunkSize = Math.max(1, size / (pool.getParallelism() * 4));
+    // func could call methods that unwrap the ring, which isn't thread-safe
+    unwrapRing();
+
+    lock(() -> {
+      pool.invoke(new ParallelPass(0, size, chunkSize, func));
+    });
+  }
+
   public boolean isLocked(){
     return lockCount > 0;
   }
@@ -155,31 +619,58 @@ public class CollectionBase<T> extends ArrayList<T> {
       lockCount = 1;
   }
 
+  /** @return true if ending the current lock will process queued modifications */
+  boolean hasPendingMods(){
+    return lockCount == 1 && !bProcessingModQueue && modQueue != null && !modQueue.isEmpty();
+  }
+
   protected void endLock(){
     lockCount -= 1;
     if(lockCount < 0)
       lockCount = 0;
 
-    // still locked (this was a nested lock)? nothing more to do
-    if(isLocked())
+    // still locked (this was a nested lock), or the lock was used by logic invoked while processing
+    // the mod queue (the loop below also processes any newly queued mods)? nothing more to do
+    if(isLocked() || bProcessingModQueue)
       return;
 
     // process queue of modifications that build up during the lock
-    if(modQueue == null)
+    if(modQueue == null || modQueue.isEmpty())
       return;
 
-    for(int idx=0; idx<modQueue.size(); idx++){
+    bProcessingModQueue = true;
+
+    for(int idx=0; modQueue != null && idx<modQueue.size(); idx++){
       ColMod<T> m = modQueue.get(idx);
+      modQueueStart = idx+1;
 
       if(m == null)
         continue;
 
-      if(m.addItem != null)
+      if(m.addItem != null){
+        if(queuedAdds.get(m.addItem) == m)
+          queuedAdds.remove(m.addItem);
         add(m.addItem);
-      if(m.removeItem != null)
-        remove(m.removeItem);
-      if(m.removeIndex != -1)
-        remove(m.removeIndex);
+      }
+      if(m.addItems != null){
+        insertAll(m.addIndex, m.addItems);
+      }
+      if(m.setIndex != -1)
+        set(m.setIndex, m.setItem);
+      if(m.removeItem != null){
+        if(m.identical)
+          removeIdentical(m.removeItem);
+        else
+          remove(m.removeItem);
+      }
+      if(m.removeItems != null)
+        removeItems(m.removeItems, m.identical);
+      if(m.removeIndex != -1){
+        if(m.removeToIndex == -1)
+          remove(m.removeIndex);
+        else
+          removeRange(m.removeIndex, m.removeToIndex);
+      }
       if(m.clear)
         clear();
 
@@ -189,54 +680,868 @@ public class CollectionBase<T> extends ArrayList<T> {
       // }
     }
 
-    modQueue.clear();
-    modQueue = null;
+    // keep the (emptied) queue for subsequent locks
+    if(modQueue != null)
+      modQueue.clear();
+    if(queuedAdds != null)
+      queuedAdds.clear();
+    modQueueStart = 0;
+    lockedItems = null;
+    bProcessingModQueue = false;
   }
 
+  /**
+   * Inserts the item at the given position (see addAll for the events)
+   * @param index The position
+   * @param element The item to insert
+   */
   public void add(int index, T element){
-    System.out.println("TODO CollectionBase.add(int, T) might affect collection without triggering events");
-    super.add(index, element);
+    List<T> items = new ArrayList<>(1);
+    items.add(element);
+    addAll(index, items);
   }
 
-  public boolean	addAll(Collection<? extends T> c){
-    System.out.println("TODO CollectionBase.addAll might affect collection without triggering events");
-    return super.addAll(c);
+  /**
+   * Adds all given items that pass the beforeAddTest in a single operation,
+   * then triggers addBatchEvent once with all added items, followed by
+   * an addEvent for every added item.
+   * When locked, the operation is queued.
+   *
+   * @param items The items to add
+   * @return true if any items were added
+   */
+  public boolean addAll(Collection<? extends T> items){
+    return insertAll(-1, items);
   }
 
-  public boolean	addAll(int index, Collection<? extends T> c){
-    System.out.println("TODO CollectionBase.addAll might affect collection without triggering events");
-    return super.addAll(index, c);
+  /**
+   * Inserts all given items that pass the beforeAddTest at the given position
+   * (see the addAll method without index)
+   *
+   * @param index The position at which to insert the items
+   * @param items The items to insert
+   * @return true if any items were added
+   * @throws IndexOutOfBoundsException if the index is out of range (index &lt; 0 || index &gt; size())
+   */
+  public boolean addAll(int index, Collection<? extends T> items){
+    if(index < 0 || index > size())
+      throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+
+    return insertAll(index, items);
   }
 
-  public boolean	removeAll(Collection<?> c){
-    System.out.println("TODO CollectionBase.removeAll might affect collection without triggering events");
-    return super.removeAll(c);
+  /**
+   * Inserts all given items that pass the beforeAddTest at their position in the order of this collection
+   * (after the items they're equal to) using a single linear merge, and triggers the addBatchEvent
+   * and the addEvents like addAll does. Used by sorted views for bulk additions, which would take
+   * quadratic time when inserting the items one position at a time.
+   *
+   * @param sortedItems The items to insert, sorted by the given order
+   * @param order Compares an item of this collection (first argument) to one of the given items
+   * @return true if any items were added, false if there weren't any or this collection is locked (nothing is queued)
+   */
+  boolean mergeAll(List<T> sortedItems, Comparator<T> order){
+    if(isLocked())
+      return false;
+
+    List<T> accepted = acceptItems(sortedItems);
+
+    if(accepted.isEmpty())
+      return false;
+
+    syncIndex();
+    unwrapRing();
+
+    // append to make room, then merge backwards from the end so no item is overwritten before it's moved
+    int i = size()-1, j = accepted.size()-1;
+    super.addAll(accepted);
+
+    for(int idx = size()-1; j >= 0; idx--){
+      if(i >= 0 && order.compare(super.get(i), accepted.get(j)) > 0)
+        super.set(idx, super.get(i--));
+      else
+        super.set(idx, accepted.get(j--));
+    }
+
+    resetIndex();
+    triggerAddedBatch(accepted);
+    return true;
+  }
+
+  /** Inserts the items at the given position, or appends them when the position is -1 */
+  private boolean insertAll(int index, Collection<? extends T> items){
+    if(isLocked()){
+      ColMod<T> m = new ColMod<T>();
+      m.addItems = new ArrayList<T>(items);
+      m.addIndex = index;
+      queueMod(m);
+      return false;
+    }
+
+    List<T> accepted = acceptItems(items);
+
+    if(accepted.isEmpty())
+      return false;
+
+    syncIndex();
+
+    if(index == -1){
+      unwrapRing();
+      super.addAll(accepted);
+      // appended items are indexed lazily
+      if(positions != null)
+        indexedModCount = modCount;
+    } else {
+      // the beforeAddTest might have removed items (see CollectionLimit)
+      unwrapRing();
+      super.addAll(Math.min(index, size()), accepted);
+      resetIndex();
+    }
+
+    triggerAddedBatch(accepted);
+    return true;
   }
 
+  /**
+   * Removes every occurrence of all given items in a single operation,
+   * then triggers removeBatchEvent once with all removed items, followed by
+   * a removeEvent for every removed item.
+   * When locked, the operation is queued.
+   *
+   * @param items The items to remove (compared by identity when the identity index is enabled)
+   * @return true if any items were removed
+   */
+  public boolean removeAll(Collection<?> items){
+    return removeItems(items, bIdentityIndex);
+  }
+
+  /** Like removeAll, but compares items by identity (see removeIdentical) */
+  boolean removeAllIdentical(Collection<?> items){
+    return removeItems(items, true);
+  }
+
+  private boolean removeItems(Collection<?> items, boolean identical){
+    if(isLocked()){
+      ColMod<T> m = new ColMod<T>();
+      m.removeItems = new ArrayList<Object>(items);
+      m.identical = identical;
+      queueMod(m);
+      return false;
+    }
+
+    Set<Object> lookup;
+
+    if(identical){
+      lookup = Collections.newSetFromMap(new IdentityHashMap<>());
+      lookup.addAll(items);
+    } else {
+      lookup = new HashSet<>(items);
+    }
+
+    List<T> removed = new ArrayList<>();
+    unwrapRing();
+    super.removeIf((T item) -> {
+      if(!lookup.contains(item))
+        return false;
+      removed.add(item);
+      return true;
+    });
+
+    if(removed.isEmpty())
+      return false;
+
+    resetIndex();
+    triggerRemovedBatch(removed);
+    return true;
+  }
+
+  /**
+   * Removes the items from fromIndex (inclusive) until toIndex (exclusive) in a single operation
+   * and triggers the same events as removeAll. When locked, the operation is queued.
+   *
+   * @param fromIndex Position of the first item to remove
+   * @param toIndex Position after the last item to remove
+   */
   public void removeRange(int fromIndex, int toIndex){
-    System.out.println("TODO CollectionBase.removeRange might affect collection without triggering events");
+    if(isLocked()){
+      ColMod<T> m = new ColMod<T>();
+      m.removeIndex = fromIndex;
+      m.removeToIndex = toIndex;
+      queueMod(m);
+      return;
+    }
+
+    if(fromIndex >= toIndex)
+      return;
+
+    unwrapRing();
+    List<T> removed = new ArrayList<>(subList(fromIndex, toIndex));
+    syncIndex();
     super.removeRange(fromIndex, toIndex);
+
+    if(positions != null)
+      for(T item : removed)
+        removedFromIndex(item, fromIndex);
+
+    triggerRemovedBatch(removed);
   }
 
+  /**
+   * Replaces the item at the given position, if the new item passes the beforeAddTest,
+   * and triggers the removeEvent for the replaced item and the addEvent for the new item.
+   * When locked, the operation is queued.
+   *
+   * @param index The position
+   * @param element The new item
+   * @return The replaced item, or null if the new item didn't pass the beforeAddTest or the operation was queued
+   */
   public T set(int index, T element){
-    System.out.println("TODO CollectionBase.set might affect collection without triggering events");
-    return super.set(index, element);
+    if(index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+
+    if(isLocked()){
+      ColMod<T> m = new ColMod<T>();
+      m.setIndex = index;
+      m.setItem = element;
+      queueMod(m);
+      return null;
+    }
+
+    if(beforeAddTest != null){
+      boolean wasReplacing = bReplacing;
+      bReplacing = true;
+      boolean accepted = beforeAddTest.test(element);
+      bReplacing = wasReplacing;
+
+      if(!accepted)
+        return null;
+    }
+
+    syncIndex();
+    T previous = super.set(physicalIndex(index), element);
+    // replacing doesn't change the modCount
+    lockedItems = null;
+
+    if(positions != null)
+      removedFromIndex(previous, index);
+
+    triggerRemoved(previous);
+    triggerAdded(element);
+
+    return previous;
+  }
+
+  /**
+   * Gives the size this collection would have when all items that are currently being tested
+   * by the beforeAddTest are added, so tests (like CollectionLimit's) can take bulk operations into account
+   * @return The size including the items pending an addAll
+   */
+  int getPendingSize(){
+    return size() + (pendingAdds == null ? 0 : pendingAdds.size()) - (bReplacing ? 1 : 0);
+  }
+
+  /**
+   * Drops the oldest item that already passed the beforeAddTest of an ongoing addAll
+   * (no events are triggered, as the item was never added)
+   * @return false if there were no pending items
+   */
+  boolean dropPendingAdd(){
+    if(pendingAdds == null || pendingAdds.isEmpty())
+      return false;
+
+    pendingAdds.remove(0);
+    return true;
+  }
+
+  /** @return The given items that pass the beforeAddTest */
+  private List<T> acceptItems(Collection<? extends T> items){
+    if(beforeAddTest == null)
+      return new ArrayList<T>(items);
+
+    List<T> outerPendingAdds = pendingAdds;
+    List<T> accepted = new ArrayList<T>(items.size());
+    pendingAdds = accepted;
+
+    try {
+      for(T item : items)
+        if(beforeAddTest.test(item))
+          accepted.add(item);
+    } finally {
+      pendingAdds = outerPendingAdds;
+    }
+
+    return accepted;
+  }
+
+  /** synchronized, as modifications can be queued by multiple threads during a parallel pass */
+  private synchronized void queueMod(ColMod<T> m){
+    if(modQueue == null)
+      modQueue = new ArrayList<>();
+    modQueue.add(m);
+  }
+
+  private synchronized void queueAdd(T item){
+    ColMod<T> m = new ColMod<T>();
+    m.addItem = item;
+    queueMod(m);
+
+    if(queuedAdds == null)
+      queuedAdds = new IdentityHashMap<>();
+
+    // an item that's queued more than once can't simply be cancelled by a remove
+    queuedAdds.put(item, queuedAdds.containsKey(item) ? null : m);
+  }
+
+  /**
+   * Queues the removal of the given item, unless it cancels out a queued add
+   * of an item that isn't in this collection; then neither is replayed
+   */
+  private synchronized void queueRemove(Object item, boolean identical){
+    ColMod<T> add = queuedAdds == null ? null : queuedAdds.get(item);
+
+    if(add != null && !lockedContains(item, identical)){
+      add.addItem = null;
+      queuedAdds.remove(item);
+      return;
+    }
+
+    ColMod<T> m = new ColMod<T>();
+    m.removeItem = item;
+    m.identical = identical;
+    queueMod(m);
+  }
+
+  /**
+   * Like contains (or a lookup by identity), but in constant time, without the identity index,
+   * for use while locked: the items can't change until the lock is lifted,
+   * so they're collected into a set only once (per lock)
+   */
+  private boolean lockedContains(Object item, boolean identical){
+    if(identical ? positions != null : bIdentityIndex)
+      return identityIndexOf(item) != -1;
+
+    if(lockedItems == null || bLockedItemsIdentical != identical || lockedItemsModCount != modCount){
+      lockedItems = identical ? Collections.newSetFromMap(new IdentityHashMap<>()) : new HashSet<>();
+      for(int idx=0; idx<size(); idx++)
+        lockedItems.add(get(idx));
+      bLockedItemsIdentical = identical;
+      lockedItemsModCount = modCount;
+    }
+
+    return lockedItems.contains(item);
+  }
+
+  /** Queues a clear, which makes all modifications queued before it (that weren't replayed yet) redundant */
+  private synchronized void queueClear(){
+    if(modQueue != null)
+      modQueue.subList(modQueueStart, modQueue.size()).clear();
+    if(queuedAdds != null)
+      queuedAdds.clear();
+
+    ColMod<T> m = new ColMod<T>();
+    m.clear = true;
+    queueMod(m);
+  }
+
+  /**
+   * Enables or disables deferred event dispatch. When enabled, added and removed items
+   * are recorded instead of triggering events; the next flush (or update) call triggers
+   * removeBatchEvent and addBatchEvent (followed by their per-item events) once, with the
+   * net changes since the previous flush. Items that were added and removed again
+   * (or the other way around) in the meantime aren't reported at all.
+   * Disabling delivers the pending events right away.
+   *
+   * Note that all listeners, including synced, filtered and sorted views, indexes and aggregates, only see the changes when flushed.
+   *
+   * @param value Enables deferred dispatch when true
+   */
+  public void setDispatchOnUpdate(boolean value){
+    if(value == bDispatchOnUpdate)
+      return;
+
+    if(!value)
+      flush();
+
+    bDispatchOnUpdate = value;
   }
 
-  T findFirst(Predicate<T> predicate){
+  public boolean getDispatchOnUpdate(){
+    return bDispatchOnUpdate;
+  }
+
+  /** Delivers the events for all changes since the previous flush (only in deferred dispatch mode, see setDispatchOnUpdate) */
+  public void flush(){
+    if(deferredItems == null || deferredItems.isEmpty())
+      return;
+
+    List<T> added = new ArrayList<>();
+    List<T> removed = new ArrayList<>();
+
+    for(T item : deferredItems){
+      int count = deferredCounts.get(item);
+      for(; count > 0; count--)
+        added.add(item);
+      for(; count < 0; count++)
+        removed.add(item);
+    }
+
+    // changes made by listeners are deferred until the next flush
+    deferredItems.clear();
+    deferredCounts.clear();
+
+    if(!removed.isEmpty())
+      triggerBatch(removeBatchEvent, removeEvent, removed);
+    if(!added.isEmpty())
+      triggerBatch(addBatchEvent, addEvent, added);
+  }
+
+  /** To be called from the main loop (once per frame); delivers the deferred events, see flush */
+  public void update(){
+    flush();
+  }
+
+  /** Records an added (or removed) item for the next flush */
+  private void defer(T item, boolean added){
+    if(deferredItems == null){
+      deferredItems = new ArrayList<>();
+      deferredCounts = new IdentityHashMap<>();
+    }
+
+    Integer count = deferredCounts.get(item);
+    if(count == null)
+      deferredItems.add(item);
+
+    deferredCounts.put(item, (count == null ? 0 : count) + (added ? 1 : -1));
+  }
+
+  // the trigger methods below record the changes instead in deferred dispatch mode
+
+  private void triggerAdded(T item){
+    if(bDispatchOnUpdate)
+      defer(item, true);
+    else if(addEvent != null)
+      triggerItem(addEvent, item);
+  }
+
+  private void triggerRemoved(T item){
+    if(bDispatchOnUpdate)
+      defer(item, false);
+    else if(removeEvent != null)
+      triggerItem(removeEvent, item);
+  }
+
+  private void triggerAddedBatch(List<T> items){
+    if(!bDispatchOnUpdate){
+      triggerBatch(addBatchEvent, addEvent, items);
+      return;
+    }
+
+    for(T item : items)
+      defer(item, true);
+  }
+
+  private void triggerRemovedBatch(List<T> items){
+    if(!bDispatchOnUpdate){
+      triggerBatch(removeBatchEvent, removeEvent, items);
+      return;
+    }
+
+    for(T item : items)
+      defer(item, false);
+  }
+
+  /** Triggers the given per-item event for a single (non-bulk) modification */
+  private void triggerItem(Event<T> event, T item){
+    // modifications made by listeners of a batch' per-item events aren't part of that batch
+    boolean wasDispatchingBatch = bDispatchingBatch;
+    bDispatchingBatch = false;
+    event.trigger(item);
+    bDispatchingBatch = wasDispatchingBatch;
+  }
+
+  private void triggerBatch(Event<List<T>> batchEvent, Event<T> itemEvent, List<T> items){
+    if(batchEvent != null)
+      batchEvent.trigger(items);
+
+    if(itemEvent == null)
+      return;
+
+    boolean wasDispatchingBatch = bDispatchingBatch;
+    bDispatchingBatch = true;
+
+    for(T item : items)
+      itemEvent.trigger(item);
+
+    bDispatchingBatch = wasDispatchingBatch;
+  }
+
+  /**
+   * Enables or disables an identity-hash index of the positions of all items,
+   * which makes indexOf, contains and remove(Object) O(1) (amortized) instead of linear scans.
+   * Note that while the index is enabled those methods compare items by identity (==)
+   * instead of by equals, and that it costs some memory per item.
+   *
+   * The index stays correct across all modifications; only the positions of items
+   * after a removed (or inserted) item are re-indexed, lazily, when they're looked up.
+   *
+   * @param enabled Whether to use the index
+   */
+  public void setIdentityIndex(boolean enabled){
+    bIdentityIndex = enabled;
+    updateIndex();
+  }
+
+  public boolean getIdentityIndex(){
+    return bIdentityIndex;
+  }
+
+  /**
+   * Maintains the identity position index for internal lookups (see identityIndexOf and removeIdentical)
+   * without changing the semantics of indexOf, contains and remove(Object); used by the views
+   * that look up the exact items they added to their collection
+   */
+  void usePositionIndex(){
+    bPositionIndex = true;
+    updateIndex();
+  }
+
+  /** Creates or drops the index, depending on whether it's used */
+  private void updateIndex(){
+    boolean enabled = bIdentityIndex || bPositionIndex;
+
+    if(enabled == (positions != null))
+      return;
+
+    positions = enabled ? new IdentityHashMap<>() : null;
+    validPositions = 0;
+    indexedModCount = modCount;
+  }
+
+  @Override public int indexOf(Object item){
+    if(bIdentityIndex)
+      return identityIndexOf(item);
+
+    unwrapRing();
+    return super.indexOf(item);
+  }
+
+  /** @return The position of the first occurrence of the given instance, using the index when it's maintained */
+  int identityIndexOf(Object item){
+    if(positions == null){
+      for(int idx=0; idx<size(); idx++)
+        if(get(idx) == item)
+          return idx;
+      return -1;
+    }
+
+    syncIndex();
+    Integer idx = positions.get(item);
+
+    if(idx != null && idx < validPositions)
+      return idx;
+
+    // not in the valid part of the index; index the rest until we find the item
+    while(validPositions < size()){
+      int next = validPositions;
+      indexNext();
+      if(get(next) == item)
+        return next;
+    }
+
+    return -1;
+  }
+
+  /** Resets the index when the list was modified without updating the index */
+  private void syncIndex(){
+    if(positions != null && indexedModCount != modCount)
+      resetIndex();
+  }
+
+  /** Clears the index, all positions will be indexed again lazily */
+  private void resetIndex(){
+    if(positions == null)
+      return;
+
+    positions.clear();
+    validPositions = 0;
+    indexedModCount = modCount;
+  }
+
+  /** Adds the item at position validPositions to the index and advances validPositions */
+  private void indexNext(){
+    int idx = validPositions;
+    T item = get(idx);
+    Integer existing = positions.get(item);
+
+    // existing positions before idx are valid, so they're the first occurrence of the item
+    if(existing == null || existing >= idx)
+      positions.put(item, idx);
+
+    validPositions = idx+1;
+  }
+
+  /** Updates the index after the given item was removed from the given position */
+  private void removedFromIndex(Object item, int idx){
+    if(validPositions > idx)
+      validPositions = idx;
+
+    Integer existing = positions.get(item);
+
+    // valid positions are an earlier occurrence which is still there, any other
+    // position is outdated; a later occurrence will be indexed again when necessary
+    if(existing != null && existing >= validPositions)
+      positions.remove(item);
+
+    indexedModCount = modCount;
+  }
+
+  /**
+   * Lets a fifo limit (see CollectionLimit) evict the first item in constant time
+   * when the item that is currently being tested by add(item) gets added; instead
+   * of shifting all items, the new item takes the place of the first item in the backing array,
+   * which is from then on used as a ring buffer. The removeEvent for the evicted item is
+   * triggered right before the addEvent for the new item.
+   *
+   * @return false if not called from the beforeAddTest of add(item), or when there's no item to evict
+   */
+  boolean evictFirstOnAdd(){
+    if(!bTestingAdd || isEmpty())
+      return false;
+
+    bEvictFirst = true;
+    return true;
+  }
+
+  /** Replaces the first item by the given item, which becomes the last item */
+  private void replaceFirst(T item){
+    syncIndex();
+    T evicted = super.set(ringHead, item);
+    ringHead = ringHead+1 == size() ? 0 : ringHead+1;
+    // all positions changed
+    modCount++;
+
+    if(positions != null)
+      removedFromIndex(evicted, 0);
+
+    triggerRemoved(evicted);
+    triggerAdded(item);
+  }
+
+  /** @return The position in the backing array of the item at the given position */
+  private int physicalIndex(int index){
+    if(ringHead == 0)
+      return index;
+
+    if(index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+
+    int physical = ringHead + index;
+    return physical >= size() ? physical - size() : physical;
+  }
+
+  /**
+   * Moves the items in the backing array back to their actual positions (in linear time, without allocations),
+   * so the ArrayList implementation can be used again; only necessary after evictFirstOnAdd
+   */
+  void unwrapRing(){
+    if(ringHead == 0)
+      return;
+
+    // rotate by reversing both parts and then everything
+    int head = ringHead;
+    ringHead = 0;
+    reverse(0, head);
+    reverse(head, size());
+    reverse(0, size());
+  }
+
+  private void reverse(int from, int to){
+    for(to--; from < to; from++, to--){
+      T tmp = super.get(from);
+      super.set(from, super.get(to));
+      super.set(to, tmp);
+    }
+  }
+
+  @Override public T get(int index){
+    return super.get(physicalIndex(index));
+  }
+
+  /**
+   * Gives the spliterator used by stream and parallelStream, which locks this collection
+   * while the stream traverses it, so modifications made by the stream's operations are queued (see each).
+   * @return A late-binding, ordered spliterator which splits evenly
+   */
+  @Override public Spliterator<T> spliterator(){
+    return new CollectionSpliterator<T>(this);
+  }
+
+  // the ArrayList methods below access the backing array directly, so it's unwrapped first
+
+  @Override public int lastIndexOf(Object item){
+    unwrapRing();
+    return super.lastIndexOf(item);
+  }
+
+  @Override public Iterator<T> iterator(){
+    unwrapRing();
+    return super.iterator();
+  }
+
+  @Override public ListIterator<T> listIterator(){
+    unwrapRing();
+    return super.listIterator();
+  }
+
+  @Override public ListIterator<T> listIterator(int index){
+    unwrapRing();
+    return super.listIterator(index);
+  }
+
+  @Override public List<T> subList(int fromIndex, int toIndex){
+    unwrapRing();
+    return super.subList(fromIndex, toIndex);
+  }
+
+  @Override public void forEach(Consumer<? super T> action){
+    unwrapRing();
+    super.forEach(action);
+  }
+
+  @Override public Object[] toArray(){
+    unwrapRing();
+    return super.toArray();
+  }
+
+  @Override public <A> A[] toArray(A[] a){
+    unwrapRing();
+    return super.toArray(a);
+  }
+
+  @Override public void sort(Comparator<? super T> c){
+    unwrapRing();
+    super.sort(c);
+  }
+
+  @Override public boolean removeIf(Predicate<? super T> filter){
+    unwrapRing();
+    return super.removeIf(filter);
+  }
+
+  @Override public void replaceAll(UnaryOperator<T> operator){
+    unwrapRing();
+    super.replaceAll(operator);
+  }
+
+  @Override public boolean retainAll(Collection<?> c){
+    unwrapRing();
+    return super.retainAll(c);
+  }
+
+  @Override public boolean equals(Object o){
+    unwrapRing();
+    return super.equals(o);
+  }
+
+  @Override public int hashCode(){
+    unwrapRing();
+    return super.hashCode();
+  }
+
+  // the query methods below test the items in place while locked, so modifications made
+  // by the predicate are queued (see each), and they stop at the first decisive item
+
+  /**
+   * @param predicate The test
+   * @return The first item that passes the test, or null if none does
+   */
+  public T findFirst(Predicate<T> predicate){
     beginLock();
-    List<T> tmpItems = new ArrayList<T>();
-    tmpItems.addAll(this);
-    endLock();
 
-    for(T item : tmpItems){
-      if(predicate.test(item))
-        return item;
+    try {
+      int size = size();
+      for(int idx=0; idx<size; idx++){
+        T item = get(idx);
+        if(predicate.test(item))
+          return item;
+      }
+    } finally {
+      endLock();
     }
 
     return null;
   }
 
+  /**
+   * Adds all items that pass the test to the given list, so callers can reuse their result lists
+   * @param predicate The test
+   * @param result The list to add the items to
+   * @return The given list
+   */
+  public <L extends List<? super T>> L findAll(Predicate<T> predicate, L result){
+    beginLock();
+
+    try {
+      int size = size();
+      for(int idx=0; idx<size; idx++){
+        T item = get(idx);
+        if(predicate.test(item))
+          result.add(item);
+      }
+    } finally {
+      endLock();
+    }
+
+    return result;
+  }
+
+  /**
+   * @param predicate The test
+   * @return true if any item passes the test
+   */
+  public boolean anyMatch(Predicate<T> predicate){
+    return indexWhere(predicate) != -1;
+  }
+
+  /**
+   * @param predicate The test
+   * @return The number of items that pass the test
+   */
+  public int count(Predicate<T> predicate){
+    int count = 0;
+    beginLock();
+
+    try {
+      int size = size();
+      for(int idx=0; idx<size; idx++)
+        if(predicate.test(get(idx)))
+          count++;
+    } finally {
+      endLock();
+    }
+
+    return count;
+  }
+
+  /**
+   * @param predicate The test
+   * @return The position of the first item that passes the test, or -1 if none does
+   */
+  public int indexWhere(Predicate<T> predicate){
+    beginLock();
+
+    try {
+      int size = size();
+      for(int idx=0; idx<size; idx++)
+        if(predicate.test(get(idx)))
+          return idx;
+    } finally {
+      endLock();
+    }
+
+    return -1;
+  }
+
   /**
    * Gives the collection an instantiator which enables the use of the create method
    *
@@ -0,0 +1,205 @@
+package com.fuse.cms;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Model variant that can be read and written from multiple threads at the same time,
+ * for example by loaders started through AsyncFacade.setThreadedAsyncLoader.
+ *
+ * Attributes are kept in a ConcurrentHashMap, so reads are lock-free and writes
+ * to different attributes don't block each other. Every effective change triggers
+ * the regular model events, but listeners are always invoked one-at-a-time and
+ * (per attribute) in the order of the writes, so listeners that follow the model
+ * (like ModelFollower and ModelIndex) end up with the latest values. Listeners are invoked
+ * by default synchronously, by one of the writing threads, or on the executor specified
+ * using setDispatchExecutor (for example a single-threaded executor, or one
+ * that hands the notifications over to the main loop).
+ *
+ * Differences with Model;
+ * * each iterates over the live attributes without locking, it never throws
+ *   a ConcurrentModificationException and modifications made during iteration are applied immediately
+ * * changes made by listeners are dispatched after the change that is being dispatched
+ * * parsed typed values are not cached and vector attributes are stored as strings,
+ *   so values that are visible to other threads are never modified
+ * * batch doesn't postpone any events and deferred dispatch (setDispatchOnUpdate) isn't supported
+ * * snapshots are built from scratch every time
+ * * listeners should be registered before the model is shared with other threads
+ */
+public class ConcurrentModel extends Model {
+  /** ConcurrentHashMap doesn't accept null values, this instance represents null */
+  private static final String NULL_VALUE = new String();
+
+  /** an effective change that wasn't dispatched yet */
+  private static class Change {
+    public String attr, value, previousValue;
+  }
+
+  private final Map<String, String> attributes = new ConcurrentHashMap<>();
+  /** changes of the same attribute are queued in the order in which they were written */
+  private final Queue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+  private final Object dispatchLock = new Object();
+  /** guarded by dispatchLock; true while a thread is dispatching the pending changes */
+  private boolean bDispatching = false;
+  private Executor dispatchExecutor = null;
+
+  @Override public void destroy(){
+    synchronized(dispatchLock){
+      super.destroy();
+      pendingChanges.clear();
+    }
+
+    attributes.clear();
+  }
+
+  /**
+   * @param executor The executor that invokes listeners, or null to invoke them synchronously on the writing thread
+   */
+  public void setDispatchExecutor(Executor executor){
+    this.dispatchExecutor = executor;
+  }
+
+  public Executor getDispatchExecutor(){
+    return dispatchExecutor;
+  }
+
+  @Override public boolean has(String attr){
+    return attributes.containsKey(attr);
+  }
+
+  @Override public String get(String attr){
+    String value = attributes.get(attr);
+    return value == NULL_VALUE ? null : value;
+  }
+
+  @Override public void set(String attr, String val){
+    Change change = new Change();
+
+    // the change is queued while the attribute's entry is locked, so concurrent
+    // writes of the same attribute are queued in the same order as they're applied
+    attributes.compute(attr, (String key, String existing) -> {
+      String previous = existing == NULL_VALUE ? null : existing;
+
+      if(previous != null && previous.equals(val))
+        return existing;
+
+      // both values are immutable strings, so they can be handed to another thread
+      change.attr = attr;
+      change.value = val;
+      change.previousValue = previous;
+      pendingChanges.add(change);
+      return val == null ? NULL_VALUE : val;
+    });
+
+    if(change.attr == null)
+      return;
+
+    if(dispatchExecutor == null){
+      dispatchPending();
+      return;
+    }
+
+    dispatchExecutor.execute(() -> dispatchPending());
+  }
+
+  @Override public void set(String attr, float[] vec){
+    set(attr, new AttributeValue(vec).getString());
+  }
+
+  /** Dispatches all pending changes in order, unless another thread (or this thread, in a listener) is already doing that */
+  private void dispatchPending(){
+    synchronized(dispatchLock){
+      // a listener changed an attribute; the loop below dispatches it after the current change
+      if(bDispatching)
+        return;
+
+      bDispatching = true;
+
+      try {
+        Change change;
+        while((change = pendingChanges.poll()) != null)
+          notifyChange(change.attr, change.value, change.previousValue);
+      } finally {
+        bDispatching = false;
+      }
+    }
+  }
+
+  @Override public void each(BiConsumer<String, String> func){
+    for(Map.Entry<String, String> pair : attributes.entrySet()){
+      String value = pair.getValue();
+      func.accept(pair.getKey(), value == NULL_VALUE ? null : value);
+    }
+  }
+
+  @Override public int size(){
+    return attributes.size();
+  }
+
+  @Override public Set<String> getAttributeNames(){
+    return attributes.keySet();
+  }
+
+  /** Runs the given logic without postponing any events (see class documentation) */
+  @Override public void batch(Consumer<ModelBase> func){
+    func.accept(this);
+  }
+
+  /** Batching isn't supported by concurrent models; changes are always dispatched right away */
+  @Override public void beginBatch(){
+  }
+
+  /** Batching isn't supported by concurrent models; changes are always dispatched right away */
+  @Override public void commitBatch(){
+  }
+
+  /**
+   * Deferred dispatch isn't supported by concurrent models
+   * @param value Only false is accepted
+   */
+  @Override public void setDispatchOnUpdate(boolean value){
+    if(value)
+      throw new UnsupportedOperationException("ConcurrentModel doesn't support deferred dispatch");
+  }
+
+  @Override public boolean isBatching(){
+    return false;
+  }
+
+  @Override public boolean isCompact(){
+    return false;
+  }
+
+  @Override void useShape(ModelShape rootShape){
+    // compact storage isn't supported by concurrent models
+  }
+
+  /**
+   * Concurrent models don't keep track of the attributes changed since their previous
+   * snapshot, so every snapshot costs the number of attributes, and attributes
+   * changed while the snapshot is taken may or may not be included.
+   * @return A new snapshot
+   */
+  @Override public ModelSnapshot snapshot(){
+    AttributeTrie trie = AttributeTrie.EMPTY;
+
+    for(Map.Entry<String, String> pair : attributes.entrySet()){
+      String value = pair.getValue();
+      trie = trie.with(pair.getKey(), value == NULL_VALUE ? null : value);
+    }
+
+    return new ModelSnapshot(trie);
+  }
+
+  /** Parses (but doesn't cache) the current value of the specified attribute */
+  @Override AttributeValue getParsed(String attr){
+    String value = get(attr);
+    return value == null ? null : new AttributeValue(value);
+  }
+}
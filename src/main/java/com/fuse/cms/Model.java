@@ -70,14 +70,13 @@ class AttributeTransformer {
   }
 
   public void start(){
-    model.attributeChangeEvent.addListener((ModelBase.AttributeChangeArgs args) -> {
-      if(args.attr.equals(attr))
-        this.func.accept(args.value);
+    model.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+      this.func.accept(args.value);
     }, this);
   }
 
   public void stop(){
-    model.attributeChangeEvent.removeListeners(this);
+    model.removeAttributeListeners(attr, this);
   }
 
   public Object getOwner(){
@@ -107,14 +106,14 @@ class ModelTransformer {
   }
 
   public void start(){
-    model.changeEvent.addListener((ModelBase m) -> {
+    model.changeEvent().addListener((ModelBase m) -> {
       this.func.accept(m);
     }, this);
   }
 
   public void stop(){
     if(this.model != null)
-      model.changeEvent.removeListeners(this);
+      model.changeEvent().removeListeners(this);
   }
 
   public Object getOwner(){
@@ -144,11 +143,14 @@ class ModelFollower extends ModelExtension {
       return;
     }
 
-    this.source.each((String key, String val) -> {
-      this.model.set(key, val);
+    // apply all of the source's attributes as a single batch
+    this.model.batch((ModelBase target) -> {
+      this.source.each((String key, String val) -> {
+        target.set(key, val);
+      });
     });
 
-    this.source.attributeChangeEvent.addListener((ModelBase.AttributeChangeArgs args) -> {
+    this.source.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
         this.model.set(args.attr, args.value);
     }, this);
   }
@@ -156,7 +158,7 @@ class ModelFollower extends ModelExtension {
   @Override
   public void stop(){
     if(this.source != null)
-      this.source.attributeChangeEvent.removeListeners(this);
+      this.source.attributeChangeEvent().removeListeners(this);
   }
 }
 
@@ -186,10 +188,13 @@ class ModelJsonParser {
 
     Iterator<String> it = jsonObject.keys();
 
-    while(it.hasNext()){
-      String attr = it.next();
-      model.set(attr, jsonObject.get(attr).toString());
-    }
+    // apply all json attributes as a single batch
+    model.batch((ModelBase m) -> {
+      while(it.hasNext()){
+        String attr = it.next();
+        m.set(attr, jsonObject.get(attr).toString());
+      }
+    });
 
     return true;
   }
@@ -200,8 +205,13 @@ public class Model extends ModelBase {
   private List<ModelTransformer> modelTransformers = null;
   private List<ModelExtension> extensions = null;
 
-  // public Model(){
-  // }
+  public Model(){
+  }
+
+  /** @param bLazyEvents Creates the events lazily when true (see ModelBase(boolean)) */
+  public Model(boolean bLazyEvents){
+    super(bLazyEvents);
+  }
 
   public void destroy(){
     if(attributeTransformers!=null){
@@ -0,0 +1,233 @@
+package com.fuse.cms;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fuse.utils.Event;
+
+/**
+ * Live count, sum, average, minimum and maximum of a numeric attribute
+ * of all models in a collection (see ModelCollectionBase.aggregate).
+ * The aggregates are updated incrementally; in constant time for count, sum and average
+ * and in logarithmic time for min and max (which are kept in an ordered map of values),
+ * when models are added or removed or when the attribute changes.
+ *
+ * Models without a (valid numeric) value for the attribute are ignored.
+ */
+public class ModelAggregate extends CollectionExtension<Model> {
+  /** the value a model contributes and the number of times the model is in the collection */
+  private static class Entry {
+    public float value;
+    public int count;
+  }
+
+  private String attr;
+  private Map<Model, Entry> entries;
+  /** maps every contributed value to the number of times it's contributed */
+  private TreeMap<Float, Integer> values;
+  private int count = 0;
+  private double sum = 0.0;
+  /** lazily initialized, see changeEvent() */
+  private Event<ModelAggregate> changeEvent = null;
+  /** the aggregates before the current update, see beginUpdate/endUpdate */
+  private int previousCount;
+  private double previousSum, previousMin, previousMax;
+
+  public ModelAggregate(CollectionBase<Model> collection, String attr){
+    super(collection);
+    this.attr = attr;
+    this.entries = new IdentityHashMap<>();
+    this.values = new TreeMap<>();
+  }
+
+  @Override
+  protected void setup(){
+    CollectionBase<Model> col = getCollection();
+
+    col.each((Model m) -> {
+      this.insert(m);
+    });
+
+    col.addBatchEvent().addListener((List<Model> models) -> {
+      beginUpdate();
+      for(Model m : models)
+        insert(m);
+      endUpdate();
+    }, this);
+
+    col.removeBatchEvent().addListener((List<Model> models) -> {
+      beginUpdate();
+      for(Model m : models)
+        remove(m);
+      endUpdate();
+    }, this);
+
+    col.addEvent().addListener((Model m) -> {
+      // already processed by the batch listener
+      if(col.isDispatchingBatch())
+        return;
+      beginUpdate();
+      insert(m);
+      endUpdate();
+    }, this);
+
+    col.removeEvent().addListener((Model m) -> {
+      if(col.isDispatchingBatch())
+        return;
+      beginUpdate();
+      remove(m);
+      endUpdate();
+    }, this);
+  }
+
+  @Override
+  protected void destroy(){
+    CollectionBase<Model> col = getCollection();
+
+    if(col != null){
+      col.addEvent().removeListeners(this);
+      col.removeEvent().removeListeners(this);
+      col.addBatchEvent().removeListeners(this);
+      col.removeBatchEvent().removeListeners(this);
+    }
+
+    for(Model m : entries.keySet())
+      m.removeAttributeListeners(attr, this);
+
+    entries.clear();
+    values.clear();
+    count = 0;
+    sum = 0.0;
+
+    if(changeEvent != null){
+      changeEvent.destroy();
+      changeEvent = null;
+    }
+
+    super.destroy();
+  }
+
+  public String getAttr(){
+    return attr;
+  }
+
+  /** @return The (lazily created) event that is triggered with this aggregate when any of its values changes */
+  public Event<ModelAggregate> changeEvent(){
+    if(changeEvent == null)
+      changeEvent = new Event<ModelAggregate>();
+    return changeEvent;
+  }
+
+  /** @return The number of models with a numeric value for the attribute */
+  public int count(){
+    return count;
+  }
+
+  public double sum(){
+    return sum;
+  }
+
+  /** @return The average value, or zero when there are no values */
+  public double average(){
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  /** @return The lowest value, or NaN when there are no values */
+  public double min(){
+    return values.isEmpty() ? Double.NaN : values.firstKey();
+  }
+
+  /** @return The highest value, or NaN when there are no values */
+  public double max(){
+    return values.isEmpty() ? Double.NaN : values.lastKey();
+  }
+
+  private void insert(Model m){
+    Entry entry = entries.get(m);
+
+    if(entry == null){
+      entry = new Entry();
+      entry.value = m.getFloat(attr, Float.NaN);
+      entries.put(m, entry);
+
+      m.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+        beginUpdate();
+        change(m);
+        endUpdate();
+      }, this);
+    }
+
+    entry.count++;
+    add(entry.value, 1);
+  }
+
+  private void remove(Model m){
+    Entry entry = entries.get(m);
+    if(entry == null)
+      return;
+
+    add(entry.value, -1);
+    entry.count--;
+
+    if(entry.count == 0){
+      entries.remove(m);
+      m.removeAttributeListeners(attr, this);
+    }
+  }
+
+  private void change(Model m){
+    Entry entry = entries.get(m);
+    if(entry == null)
+      return;
+
+    float value = m.getFloat(attr, Float.NaN);
+    if(Float.compare(value, entry.value) == 0)
+      return;
+
+    add(entry.value, -entry.count);
+    entry.value = value;
+    add(entry.value, entry.count);
+  }
+
+  /** Adds (or removes, for negative amounts) the given value the given number of times */
+  private void add(float value, int amount){
+    if(Float.isNaN(value))
+      return;
+
+    count += amount;
+    sum += (double)value * amount;
+
+    Integer current = values.get(value);
+    int newAmount = (current == null ? 0 : current) + amount;
+
+    if(newAmount > 0)
+      values.put(value, newAmount);
+    else
+      values.remove(value);
+
+    // no values left; prevent rounding errors from lingering
+    if(count == 0)
+      sum = 0.0;
+  }
+
+  private void beginUpdate(){
+    previousCount = count;
+    previousSum = sum;
+    previousMin = min();
+    previousMax = max();
+  }
+
+  /** Triggers changeEvent if any of the aggregates changed since beginUpdate */
+  private void endUpdate(){
+    if(changeEvent == null || changeEvent.size() == 0)
+      return;
+
+    if(previousCount == count && previousSum == sum
+      && Double.compare(previousMin, min()) == 0 && Double.compare(previousMax, max()) == 0)
+      return;
+
+    changeEvent.trigger(this);
+  }
+}
@@ -1,8 +1,13 @@
 package com.fuse.cms;
 
-import java.lang.reflect.Array;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,13 +16,308 @@ import java.util.function.Consumer;
 
 import com.fuse.utils.Event;
 
-public class ModelBase {
+/**
+ * String attribute value with lazily parsed and cached typed representations.
+ * Stored in place of the plain String value the first time a typed getter
+ * is used on an attribute; any set of the attribute replaces it again, which
+ * invalidates the cache.
+ *
+ * Vector attributes (see ModelBase.set(String, float[])) store their float components
+ * natively in an AttributeValue, their string value is only generated when requested.
+ *
+ * The parsed representations are published as immutable objects, so (like plain reads)
+ * typed reads of a model that isn't being modified can be made from multiple threads.
+ */
+class AttributeValue {
+  /**
+   * Immutable result of parsing the value as a single type. Results are published
+   * without locking; their final fields make that safe, so concurrent typed reads
+   * of the same value at worst parse it more than once.
+   */
+  private static final class Parsed {
+    static final Parsed INVALID = new Parsed(false, 0, 0.0f);
+    static final Parsed TRUE = new Parsed(true, 0, 0.0f);
+    static final Parsed FALSE = new Parsed(false, 0, 0.0f);
+
+    final boolean valid;
+    /** the int or long value */
+    final long integer;
+    final float real;
+
+    Parsed(boolean valid, long integer, float real){
+      this.valid = valid;
+      this.integer = integer;
+      this.real = real;
+    }
+  }
+
+  /** Immutable (apart from the in-place updates by setVec) parsed vector components */
+  private static final class Components {
+    final float[] values;
+    final boolean[] valid;
+
+    Components(float[] values, boolean[] valid){
+      this.values = values;
+      this.valid = valid;
+    }
+  }
+
+  /** lazily generated for native vector values */
+  private String string;
+  private Parsed intValue = null;
+  private Parsed longValue = null;
+  private Parsed floatValue = null;
+  private Parsed boolValue = null;
+  private Components vec = null;
+
+  public AttributeValue(String string){
+    this.string = string;
+  }
+
+  /** @param vec The (copied) components of a native vector value */
+  public AttributeValue(float[] vec){
+    setVec(vec);
+  }
+
+  public String getString(){
+    String str = string;
+    Components components = vec;
+
+    if(str == null && components != null){
+      StringBuilder builder = new StringBuilder();
+      for(int i=0; i<components.values.length; i++){
+        if(i > 0)
+          builder.append(',');
+        builder.append(Float.toString(components.values[i]));
+      }
+      str = builder.toString();
+      string = str;
+    }
+
+    return str;
+  }
+
+  /** @return true if this value's components equal the given vector */
+  public boolean vecEquals(float[] vec){
+    Components components = getComponents();
+
+    if(components.values.length != vec.length)
+      return false;
+
+    for(int i=0; i<vec.length; i++)
+      if(!components.valid[i] || Float.floatToIntBits(components.values[i]) != Float.floatToIntBits(vec[i]))
+        return false;
+
+    return true;
+  }
+
+  public boolean isNativeVec(){
+    return vec != null && string == null;
+  }
+
+  /**
+   * Replaces this value with the given vector components (reusing the component array when possible),
+   * which invalidates the string value and all cached parsed values.
+   * Unlike the getters, this changes the value, so it shouldn't be called while other threads read it.
+   * @param vec The components to copy
+   */
+  public void setVec(float[] vec){
+    if(this.vec == null || this.vec.values.length != vec.length){
+      boolean[] valid = new boolean[vec.length];
+      Arrays.fill(valid, true);
+      this.vec = new Components(new float[vec.length], valid);
+    }
+
+    System.arraycopy(vec, 0, this.vec.values, 0, vec.length);
+    string = null;
+    intValue = null;
+    longValue = null;
+    floatValue = null;
+    boolValue = null;
+  }
+
+  public int getInt(int defaultValue){
+    Parsed parsed = intValue;
+
+    if(parsed == null){
+      try {
+        parsed = new Parsed(true, Integer.parseInt(getString()), 0.0f);
+      } catch (java.lang.NumberFormatException exc){
+        parsed = Parsed.INVALID;
+      }
+      intValue = parsed;
+    }
+
+    return parsed.valid ? (int)parsed.integer : defaultValue;
+  }
+
+  public long getLong(long defaultValue){
+    Parsed parsed = longValue;
+
+    if(parsed == null){
+      try {
+        parsed = new Parsed(true, Long.parseLong(getString()), 0.0f);
+      } catch (java.lang.NumberFormatException exc){
+        parsed = Parsed.INVALID;
+      }
+      longValue = parsed;
+    }
+
+    return parsed.valid ? parsed.integer : defaultValue;
+  }
+
+  public float getFloat(float defaultValue){
+    Parsed parsed = floatValue;
+
+    if(parsed == null){
+      try {
+        parsed = new Parsed(true, 0, Float.parseFloat(getString()));
+      } catch (java.lang.NumberFormatException exc){
+        parsed = Parsed.INVALID;
+      }
+      floatValue = parsed;
+    }
+
+    return parsed.valid ? parsed.real : defaultValue;
+  }
+
+  public boolean getBool(){
+    Parsed parsed = boolValue;
+
+    if(parsed == null){
+      String str = getString();
+      parsed = (str == "1" || Boolean.parseBoolean(str)) ? Parsed.TRUE : Parsed.FALSE;
+      boolValue = parsed;
+    }
+
+    return parsed.valid;
+  }
+
+  /** @return The (lazily parsed) vector components */
+  private Components getComponents(){
+    Components components = vec;
+
+    if(components == null){
+      String[] parts = getString().split(",");
+      float[] values = new float[parts.length];
+      boolean[] valid = new boolean[parts.length];
+
+      for(int i=0; i<parts.length; i++){
+        try {
+          values[i] = Float.parseFloat(parts[i]);
+          valid[i] = true;
+        } catch (java.lang.NumberFormatException exc){}
+      }
+
+      components = new Components(values, valid);
+      vec = components;
+    }
+
+    return components;
+  }
+
+  /**
+   * Writes the (cached) comma-separated float components of the value into the given array,
+   * without allocating anything once the components are parsed
+   * @param out The array to populate
+   * @param count The number of components to write
+   * @param defaultValue Provides the values for components that are missing or invalid (may be null, defaulting to zero)
+   */
+  public void getVec(float[] out, int count, float[] defaultValue){
+    Components components = getComponents();
+
+    for(int i=0; i<count; i++){
+      if(i < components.values.length && components.valid[i]){
+        out[i] = components.values[i];
+        continue;
+      }
+
+      out[i] = (defaultValue != null && defaultValue.length > i) ? defaultValue[i] : 0.0f;
+    }
+  }
+}
+
+/**
+ * Immutable attribute-key layout ("shape") which is shared by models in compact storage mode.
+ * Models that have the same keys (added in the same order) share a single shape
+ * and only store a flat array of values; adding a key moves a model to the (cached)
+ * shape that extends its current shape with that key.
+ */
+class ModelShape {
+  private final ModelShape root;
+  private final String[] keys;
+  private final Map<String, Integer> indices;
+  private final Set<String> keySet;
+  /** lazily initialized cache of shapes that extend this shape with a single key */
+  private Map<String, ModelShape> transitions = null;
+
+  /** Creates a new, empty root shape */
+  public ModelShape(){
+    this.root = this;
+    this.keys = new String[0];
+    this.indices = new HashMap<>();
+    this.keySet = Collections.unmodifiableSet(indices.keySet());
+  }
+
+  private ModelShape(ModelShape parent, String key){
+    this.root = parent.root;
+    this.keys = Arrays.copyOf(parent.keys, parent.keys.length+1);
+    this.keys[parent.keys.length] = key;
+    this.indices = new LinkedHashMap<>(parent.indices);
+    this.indices.put(key, parent.keys.length);
+    this.keySet = Collections.unmodifiableSet(indices.keySet());
+  }
 
-  private class Mod {
-    public String setAttr;
-    public String setValue;
+  public ModelShape getRoot(){
+    return root;
+  }
+
+  public int size(){
+    return keys.length;
   }
 
+  public String getKey(int idx){
+    return keys[idx];
+  }
+
+  public Set<String> getKeys(){
+    return keySet;
+  }
+
+  /**
+   * @param key The attribute name
+   * @return The position of the given key's value in the value array of models with this shape, or -1 if this shape doesn't have the key
+   */
+  public int indexOf(String key){
+    Integer idx = indices.get(key);
+    return idx == null ? -1 : idx;
+  }
+
+  /**
+   * @param key The attribute name to add
+   * @return The shape with all keys of this shape plus the given key
+   */
+  public ModelShape with(String key){
+    if(transitions == null)
+      transitions = new HashMap<>();
+
+    ModelShape shape = transitions.get(key);
+
+    if(shape == null){
+      shape = new ModelShape(this, key);
+      transitions.put(key, shape);
+    }
+
+    return shape;
+  }
+}
+
+public class ModelBase {
+
+  /**
+   * Passed to attributeChangeEvent listeners; a new instance for every change,
+   * unless the model reuses its args instance (see setReuseChangeArgs)
+   */
   public class AttributeChangeArgs {
     public ModelBase model;
     public String attr;
@@ -25,31 +325,127 @@ public class ModelBase {
     public String previousValue;
   }
 
-  private Map<String, String> attributes;
+  public class BatchChangeArgs {
+    public ModelBase model;
+    /** maps the name of every attribute that changed during the batch to its value before the batch (null for new attributes) */
+    public Map<String, String> previousValues;
+  }
+
+  private static final Object[] NO_VALUES = new Object[0];
+
+  /** values are either a String or an AttributeValue (a String with cached parsed values); null in compact storage mode */
+  private Map<String, Object> attributes;
+  /** compact storage mode only; the (shared) key layout for our values array */
+  private ModelShape shape = null;
+  /** compact storage mode only; holds the value of each key in our shape at the same position */
+  private Object[] values = null;
   private int lockCount = 0;
-  private List<Mod> modQueue = null;
+  /** modifications made while locked, as attribute name/value (String or float[]) pairs; reused for subsequent locks */
+  private Object[] modQueue = null;
+  private int modQueueSize = 0;
+  /** position in the modQueue of the first mod that wasn't replayed yet */
+  private int modQueueStart = 0;
+  /** maps the queued attributes to their (latest) position in the modQueue, see queueMod */
+  private Map<String, Integer> queuedSlots = null;
+  private boolean bProcessingModQueue = false;
+  /** see setReuseChangeArgs */
+  private boolean bReuseChangeArgs = false;
+  /** flyweight args instance, reused for every attribute change dispatch (except nested ones) when bReuseChangeArgs is set */
+  private AttributeChangeArgs changeArgs = null;
+  private boolean bDispatchingChangeArgs = false;
+  private int batchCount = 0;
+  /** see setDispatchOnUpdate */
+  private boolean bDispatchOnUpdate = false;
+  /** only set while batching; the original values of the attributes changed during the batch */
+  private Map<String, String> batchPreviousValues = null;
 
-  public Event<AttributeChangeArgs> attributeChangeEvent;
-  public Event<ModelBase> changeEvent;
+  /** null until first requested (using attributeChangeEvent()) for models created with lazy events */
+  public Event<AttributeChangeArgs> attributeChangeEvent = null;
+  /** null until first requested (using changeEvent()) for models created with lazy events */
+  public Event<ModelBase> changeEvent = null;
+  /** lazily initialized, see batchChangeEvent() */
+  private Event<BatchChangeArgs> batchChangeEvent = null;
+  /** lazily initialized; per-attribute change events, see getAttributeChangeEvent */
+  private Map<String, Event<AttributeChangeArgs>> attributeChangeEvents = null;
+  /** lazily initialized by snapshot(); the latest snapshot taken of this model */
+  private ModelSnapshot lastSnapshot = null;
+  /** only set after the first snapshot; the names of the attributes changed since the latest snapshot */
+  private Set<String> snapshotChangedAttributes = null;
 
   public ModelBase(){
-    attributes = new HashMap<String, String>();
-    changeEvent = new Event<ModelBase>();
-    attributeChangeEvent = new Event<AttributeChangeArgs>();
+    this(false);
+  }
+
+  /**
+   * Most models are never observed; a model with lazy events only creates its
+   * changeEvent and attributeChangeEvent when they're first requested using the
+   * accessor methods (like changeEvent()), which saves their memory when it isn't observed.
+   * The public fields (like changeEvent) of such a model are null until then.
+   * A collection can create its models this way using setInstantiator(() -> new Model(true)).
+   *
+   * @param bLazyEvents Creates the events lazily when true
+   */
+  public ModelBase(boolean bLazyEvents){
+    attributes = new HashMap<String, Object>();
+
+    if(!bLazyEvents){
+      changeEvent = new Event<ModelBase>();
+      attributeChangeEvent = new Event<AttributeChangeArgs>();
+    }
   }
 
   public void destroy(){
-    changeEvent.destroy();
-    attributeChangeEvent.destroy();
-    attributes.clear();
+    if(changeEvent != null)
+      changeEvent.destroy();
+    if(attributeChangeEvent != null)
+      attributeChangeEvent.destroy();
+    if(batchChangeEvent != null)
+      batchChangeEvent.destroy();
+
+    if(attributeChangeEvents != null){
+      for(Event<AttributeChangeArgs> evt : attributeChangeEvents.values())
+        evt.destroy();
+      attributeChangeEvents = null;
+    }
+
+    if(shape != null){
+      shape = shape.getRoot();
+      values = NO_VALUES;
+    } else {
+      attributes.clear();
+    }
+
+    lastSnapshot = null;
+    snapshotChangedAttributes = null;
+  }
+
+  /** @return The event that is triggered for every attribute change, with an AttributeChangeArgs instance */
+  public Event<AttributeChangeArgs> attributeChangeEvent(){
+    if(attributeChangeEvent == null)
+      attributeChangeEvent = new Event<AttributeChangeArgs>();
+    return attributeChangeEvent;
+  }
+
+  /** @return The (lazily created) event that is triggered with this model when any of its attributes changes */
+  public Event<ModelBase> changeEvent(){
+    if(changeEvent == null)
+      changeEvent = new Event<ModelBase>();
+    return changeEvent;
+  }
+
+  /** @return The (lazily created) event that is triggered once at the end of a batch (see the batch method) in which attributes changed */
+  public Event<BatchChangeArgs> batchChangeEvent(){
+    if(batchChangeEvent == null)
+      batchChangeEvent = new Event<BatchChangeArgs>();
+    return batchChangeEvent;
   }
 
   public boolean has(String attr){
-    return attributes.containsKey(attr);
+    return shape != null ? shape.indexOf(attr) != -1 : attributes.containsKey(attr);
   }
 
   public String get(String attr){
-    return attributes.get(attr);
+    return toString(lookup(attr));
   }
 
   public String get(String attr, String defaultValue){
@@ -61,44 +457,331 @@ public class ModelBase {
    * Changes the value of the specified attribute to the specified value.
    * * Triggers changeEvent if the attribute value was changed.
    * * Triggers attributeChangeEvent if the attribute value was changed.
-   * Trigger
+   * When batching, the value is changed immediately, but the events are
+   * triggered when the batch is committed (see the batch method).
    * @param attr The name/key of the attribute
    * @param val The new value
    */
   public void set(String attr, String val){
     if(isLocked()){
-      Mod mod = new Mod();
-      mod.setAttr = attr;
-      mod.setValue = val;
-      if(modQueue == null)
-        modQueue = new ArrayList<>();
-      modQueue.add(mod);
+      queueMod(attr, val);
       return;
     }
 
-    String existing = attributes.get(attr);
-    attributes.put(attr,  val);
+    String existing = get(attr);
 
+    // only replace the stored value when it actually changes,
+    // so the cached parsed values of an unchanged attribute stay valid
     if(existing == null || !existing.equals(val)){
+      store(attr, val);
+      afterChange(attr, val, existing);
+    }
+  }
+
+  /**
+   * Gives the specified attribute a vector value, which stores the float
+   * components natively (without converting them to a string) so they
+   * can be read using getVecInto without any parsing or allocation.
+   * The comma-separated string value is only generated when requested (using get, each, etc.).
+   * Triggers the same events as the string-based set method.
+   *
+   * @param attr The name/key of the attribute
+   * @param vec The vector components (copied; the caller can reuse the array)
+   */
+  public void set(String attr, float[] vec){
+    if(isLocked()){
+      queueMod(attr, vec.clone());
+      return;
+    }
+
+    Object existing = lookup(attr);
+
+    if(existing != null){
+      AttributeValue existingValue = getParsed(attr);
+
+      if(existingValue.vecEquals(vec))
+        return;
+
+      // update in-place when nobody needs the previous value
+      if(existingValue.isNativeVec() && !isBatching() && !hasAttributeListeners(attr)){
+        existingValue.setVec(vec);
+        if(snapshotChangedAttributes != null)
+          snapshotChangedAttributes.add(attr);
+        afterChange(attr, existingValue, null);
+        return;
+      }
+    }
+
+    AttributeValue value = new AttributeValue(vec);
+    store(attr, value);
+    afterChange(attr, value, existing);
+  }
+
+  /** Takes care of the events (or batch administration) after an attribute value changed */
+  private void afterChange(String attr, Object value, Object previousValue){
+    if(isBatching()){
+      // remember the original value of the attribute, the events are triggered by commitBatch
+      if(!batchPreviousValues.containsKey(attr))
+        batchPreviousValues.put(attr, toString(previousValue));
+      return;
+    }
+
+    notifyChange(attr, value, previousValue);
+  }
+
+  /**
+   * Triggers changeEvent and the attribute change events for a single changed attribute
+   * @param attr The attribute name
+   * @param value The new value (String or AttributeValue)
+   * @param previousValue The previous value (String, AttributeValue or null)
+   */
+  void notifyChange(String attr, Object value, Object previousValue){
+    if(changeEvent != null && changeEvent.size() > 0)
       changeEvent.trigger(this);
 
-      AttributeChangeArgs args = new AttributeChangeArgs();
-      args.model = this;
-      args.attr = attr;
-      args.value = val;
-      args.previousValue = existing;
-      attributeChangeEvent.trigger(args);
+    triggerAttributeChange(attr, value, previousValue);
+  }
+
+  /**
+   * Gives the change event for a single attribute; it is triggered (after attributeChangeEvent())
+   * only when the specified attribute changes, so dispatching a change only invokes
+   * the listeners of that attribute, no matter how many other attributes are observed.
+   *
+   * @param attr The attribute name
+   * @return The (lazily created) change event of the specified attribute
+   */
+  public Event<AttributeChangeArgs> getAttributeChangeEvent(String attr){
+    if(attributeChangeEvents == null)
+      attributeChangeEvents = new HashMap<>();
+
+    Event<AttributeChangeArgs> evt = attributeChangeEvents.get(attr);
+
+    if(evt == null){
+      evt = new Event<AttributeChangeArgs>();
+      attributeChangeEvents.put(attr, evt);
+    }
+
+    return evt;
+  }
+
+  /**
+   * Removes the listeners of the specified owner from the change event
+   * of the specified attribute and cleans up the event when it has no listeners left
+   *
+   * @param attr The attribute name
+   * @param owner The owner of the listeners to remove
+   */
+  public void removeAttributeListeners(String attr, Object owner){
+    if(attributeChangeEvents == null)
+      return;
+
+    Event<AttributeChangeArgs> evt = attributeChangeEvents.get(attr);
+    if(evt == null)
+      return;
+
+    evt.removeListeners(owner);
+
+    if(evt.size() == 0){
+      attributeChangeEvents.remove(attr);
+
+      if(attributeChangeEvents.isEmpty())
+        attributeChangeEvents = null;
     }
   }
 
+  /**
+   * Makes attribute change dispatch allocation-free for models with listeners, by passing
+   * the same (flyweight) AttributeChangeArgs instance with every change. Only enable this
+   * when none of the listeners keep a reference to the args, which rules out Event.enableHistory;
+   * every history entry (or kept reference) would point to the same instance, with the values of the latest change.
+   * Disabled by default; models without listeners never allocate anything for dispatch.
+   *
+   * @param reuse Reuses the args instance when true
+   */
+  public void setReuseChangeArgs(boolean reuse){
+    bReuseChangeArgs = reuse;
+    if(!reuse)
+      changeArgs = null;
+  }
+
+  public boolean getReuseChangeArgs(){
+    return bReuseChangeArgs;
+  }
+
+  /** @return true if attributeChangeEvent or the change event of the specified attribute has any listeners */
+  private boolean hasAttributeListeners(String attr){
+    if(attributeChangeEvent != null && attributeChangeEvent.size() > 0)
+      return true;
+
+    Event<AttributeChangeArgs> attrEvent = attributeChangeEvents == null ? null : attributeChangeEvents.get(attr);
+    return attrEvent != null && attrEvent.size() > 0;
+  }
+
+  /**
+   * Triggers attributeChangeEvent and the change event of the specified attribute,
+   * without allocating anything when there are no listeners (note that Event.enableHistory
+   * registers a listener, so recorded events are never skipped), and using
+   * our flyweight args instance when there are and reuse is enabled (see setReuseChangeArgs).
+   */
+  private void triggerAttributeChange(String attr, Object value, Object previousValue){
+    Event<AttributeChangeArgs> attrEvent = attributeChangeEvents == null ? null : attributeChangeEvents.get(attr);
+    boolean bGlobal = attributeChangeEvent != null && attributeChangeEvent.size() > 0;
+    boolean bAttr = attrEvent != null && attrEvent.size() > 0;
+
+    if(!bGlobal && !bAttr)
+      return;
+
+    // a listener could set an attribute on this model while the flyweight is
+    // being dispatched, that nested dispatch gets its own args instance
+    boolean bReuse = bReuseChangeArgs && !bDispatchingChangeArgs;
+    AttributeChangeArgs args;
+
+    if(bReuse){
+      if(changeArgs == null)
+        changeArgs = new AttributeChangeArgs();
+      args = changeArgs;
+      bDispatchingChangeArgs = true;
+    } else {
+      args = new AttributeChangeArgs();
+    }
+
+    args.model = this;
+    args.attr = attr;
+    args.value = toString(value);
+    args.previousValue = toString(previousValue);
+
+    if(bGlobal)
+      attributeChangeEvent.trigger(args);
+    if(bAttr)
+      attrEvent.trigger(args);
+
+    if(bReuse)
+      bDispatchingChangeArgs = false;
+  }
+
   public void each(BiConsumer<String, String> func){
     lock(() -> {
-      for(Map.Entry<String, String> pair : attributes.entrySet()){
-        func.accept(pair.getKey(), pair.getValue());
+      if(shape != null){
+        for(int idx=0; idx<shape.size(); idx++)
+          func.accept(shape.getKey(idx), toString(values[idx]));
+        return;
+      }
+
+      for(Map.Entry<String, Object> pair : attributes.entrySet()){
+        func.accept(pair.getKey(), toString(pair.getValue()));
       }
     });
   }
 
+  /**
+   * Applies all attribute changes made by the given logic as a single batch;
+   * the attributeChangeEvent() is triggered once for every changed attribute
+   * (with its value from before the batch as previousValue),
+   * after which changeEvent() and batchChangeEvent() are each triggered only once.
+   * If func throws, the batch is still committed (with the changes made so far).
+   *
+   * @param func The logic that modifies this model
+   */
+  public void batch(Consumer<ModelBase> func){
+    beginBatch();
+    try {
+      func.accept(this);
+    } finally {
+      commitBatch();
+    }
+  }
+
+  /** Starts a batch (see the batch method); batches can be nested, every beginBatch call needs a matching commitBatch call */
+  public void beginBatch(){
+    batchCount++;
+
+    if(batchPreviousValues == null)
+      batchPreviousValues = new LinkedHashMap<>();
+  }
+
+  /** Ends a batch and triggers the events for all changes made during the batch (unless this was a nested batch) */
+  public void commitBatch(){
+    if(batchCount == 0)
+      return;
+
+    batchCount--;
+
+    // still batching (this was a nested batch)? nothing more to do
+    if(isBatching())
+      return;
+
+    Map<String, String> previousValues = batchPreviousValues;
+    batchPreviousValues = null;
+
+    // drop attributes which were set back to their original value
+    previousValues.entrySet().removeIf((Map.Entry<String, String> pair) -> {
+      String value = get(pair.getKey());
+      return value != null && value.equals(pair.getValue());
+    });
+
+    if(previousValues.isEmpty())
+      return;
+
+    for(Map.Entry<String, String> pair : previousValues.entrySet())
+      triggerAttributeChange(pair.getKey(), get(pair.getKey()), pair.getValue());
+
+    if(changeEvent != null && changeEvent.size() > 0)
+      changeEvent.trigger(this);
+
+    if(batchChangeEvent == null || batchChangeEvent.size() == 0)
+      return;
+
+    BatchChangeArgs args = new BatchChangeArgs();
+    args.model = this;
+    args.previousValues = previousValues;
+    batchChangeEvent.trigger(args);
+  }
+
+  public boolean isBatching(){
+    return batchCount > 0;
+  }
+
+  /**
+   * Enables or disables deferred event dispatch. When enabled, all changes are recorded like
+   * in a batch that lasts until the next flush (or update) call, which delivers the events
+   * of all changes since the previous flush in one pass; every changed attribute is
+   * reported once, with its value from before the previous flush as previousValue.
+   * Disabling delivers the pending events right away.
+   *
+   * Note that (like during a batch) all listeners, including views and indexes, only see the changes when flushed.
+   *
+   * @param value Enables deferred dispatch when true
+   */
+  public void setDispatchOnUpdate(boolean value){
+    if(value == bDispatchOnUpdate)
+      return;
+
+    bDispatchOnUpdate = value;
+
+    if(value)
+      beginBatch();
+    else
+      commitBatch();
+  }
+
+  public boolean getDispatchOnUpdate(){
+    return bDispatchOnUpdate;
+  }
+
+  /** Delivers the events for all changes since the previous flush (only in deferred dispatch mode, see setDispatchOnUpdate) */
+  public void flush(){
+    if(!bDispatchOnUpdate)
+      return;
+
+    commitBatch();
+    beginBatch();
+  }
+
+  /** To be called from the main loop (once per frame); delivers the deferred events, see flush */
+  public void update(){
+    flush();
+  }
+
   public boolean isLocked(){
     return lockCount > 0;
   }
@@ -108,32 +791,203 @@ public class ModelBase {
     func.run();
     lockCount--;
 
-    if(isLocked())
+    // still locked, or the lock was used by logic invoked while processing
+    // the mod queue (the loop below also processes any newly queued mods)
+    if(isLocked() || bProcessingModQueue)
       return;
 
     // lock lifted; process mod queue if there is one
-    if(modQueue == null)
+    if(modQueueSize == 0)
       return;
 
-    for(Mod mod : modQueue){
-      set(mod.setAttr, mod.setValue);
+    bProcessingModQueue = true;
+
+    for(int idx=0; idx<modQueueSize; idx+=2){
+      Object value = modQueue[idx+1];
+      modQueueStart = idx+2;
+
+      if(value instanceof float[])
+        set((String)modQueue[idx], (float[])value);
+      else
+        set((String)modQueue[idx], (String)value);
+    }
+
+    Arrays.fill(modQueue, 0, modQueueSize, null);
+    modQueueSize = 0;
+    modQueueStart = 0;
+    queuedSlots.clear();
+    bProcessingModQueue = false;
+  }
+
+  /**
+   * Queues a modification made while locked; the last value wins when the attribute
+   * is already queued, so it is only replayed (and its events triggered) once
+   */
+  private void queueMod(String attr, Object val){
+    if(modQueue == null){
+      modQueue = new Object[8];
+      queuedSlots = new HashMap<>();
     }
 
-    modQueue.clear();
-    modQueue = null;
+    Integer slot = queuedSlots.get(attr);
+
+    // mods before modQueueStart were already replayed; those are queued again
+    if(slot != null && slot >= modQueueStart){
+      modQueue[slot+1] = val;
+      return;
+    }
+
+    if(modQueueSize == modQueue.length)
+      modQueue = Arrays.copyOf(modQueue, modQueue.length * 2);
+
+    queuedSlots.put(attr, modQueueSize);
+    modQueue[modQueueSize++] = attr;
+    modQueue[modQueueSize++] = val;
   }
 
   public int size(){
-    return attributes.size();
+    return shape != null ? shape.size() : attributes.size();
   }
 
+  /**
+   * @return A live view of the names of all attributes; in compact storage mode
+   * this view is unmodifiable and always reflects the model's current shape
+   */
   public Set<String> getAttributeNames(){
-    return attributes.keySet();
+    if(shape == null)
+      return attributes.keySet();
+
+    return new AbstractSet<String>(){
+      @Override public int size(){ return shape.size(); }
+      @Override public boolean contains(Object key){ return key instanceof String && shape.indexOf((String)key) != -1; }
+      @Override public Iterator<String> iterator(){ return shape.getKeys().iterator(); }
+    };
+  }
+
+  /**
+   * Switches this model to compact storage mode, where the attribute names are
+   * kept in a key layout (shape) that is shared with other models using the same
+   * root shape, and only the values are stored per model.
+   * The get, set, each and getAttributeNames methods keep working the same way.
+   *
+   * @param rootShape The empty shape from which all shapes of (related) models derive
+   */
+  void useShape(ModelShape rootShape){
+    if(shape != null && shape.getRoot() == rootShape)
+      return;
+
+    // collect current attributes in their current order
+    List<String> keys = new ArrayList<>(getAttributeNames());
+    Object[] currentValues = new Object[keys.size()];
+    for(int idx=0; idx<currentValues.length; idx++)
+      currentValues[idx] = lookup(keys.get(idx));
+
+    ModelShape newShape = rootShape;
+    for(String key : keys)
+      newShape = newShape.with(key);
+
+    shape = newShape;
+    values = currentValues;
+    attributes = null;
+  }
+
+  /** @return true if this model uses compact (shared shape) storage */
+  public boolean isCompact(){
+    return shape != null;
+  }
+
+  /** @return The key layout this model currently uses in compact storage mode, or null */
+  ModelShape getShape(){
+    return shape;
+  }
+
+  /**
+   * @param attr The attribute name
+   * @return The stored value; a String, an AttributeValue or null
+   */
+  private Object lookup(String attr){
+    if(shape == null)
+      return attributes.get(attr);
+
+    int idx = shape.indexOf(attr);
+    return idx == -1 ? null : values[idx];
+  }
+
+  /**
+   * Stores the given value (a String or AttributeValue) without triggering any events
+   * @param attr The attribute name
+   * @param value The value to store
+   */
+  private void store(String attr, Object value){
+    if(snapshotChangedAttributes != null)
+      snapshotChangedAttributes.add(attr);
+
+    if(shape == null){
+      attributes.put(attr, value);
+      return;
+    }
+
+    int idx = shape.indexOf(attr);
+
+    if(idx == -1){
+      // move to the shape that extends our current shape with the new key
+      shape = shape.with(attr);
+      values = Arrays.copyOf(values, shape.size());
+      idx = shape.size()-1;
+    }
+
+    values[idx] = value;
+  }
+
+  /**
+   * Replaces the stored value of an existing attribute with an equal value
+   * (like its AttributeValue), without triggering events or tracking it as a change
+   * @param attr The attribute name
+   * @param value The value to store
+   */
+  private void replace(String attr, Object value){
+    if(shape == null)
+      attributes.put(attr, value);
+    else
+      values[shape.indexOf(attr)] = value;
+  }
+
+  /**
+   * Gives an immutable, read-only view of the current attributes, which can
+   * safely be handed to other threads (for example for serialization).
+   * Subsequent snapshots share all unchanged parts of their underlying trie,
+   * so after the first snapshot, taking a snapshot only costs the number of
+   * attributes changed since the previous snapshot (and nothing when no attributes changed).
+   *
+   * @return The snapshot
+   */
+  public ModelSnapshot snapshot(){
+    if(lastSnapshot != null && snapshotChangedAttributes.isEmpty())
+      return lastSnapshot;
+
+    AttributeTrie trie;
+
+    if(lastSnapshot == null){
+      trie = AttributeTrie.EMPTY;
+      for(String attr : getAttributeNames())
+        trie = trie.with(attr, get(attr));
+      snapshotChangedAttributes = new HashSet<>();
+    } else {
+      trie = lastSnapshot.getTrie();
+      for(String attr : snapshotChangedAttributes)
+        trie = trie.with(attr, get(attr));
+      snapshotChangedAttributes.clear();
+    }
+
+    lastSnapshot = new ModelSnapshot(trie);
+    return lastSnapshot;
   }
 
   public void copy(ModelBase other){
-    other.each((attr, val) -> {
-      set(attr,val);
+    batch((ModelBase self) -> {
+      other.each((attr, val) -> {
+        set(attr,val);
+      });
     });
   }
 
@@ -149,9 +1003,8 @@ public class ModelBase {
   }
 
   public boolean getBool(String attr, boolean defaultValue){
-    String str = this.get(attr);
-    if(str == null) return defaultValue;
-    return str == "1" || Boolean.parseBoolean(str);
+    AttributeValue value = getParsed(attr);
+    return value == null ? defaultValue : value.getBool();
   }
 
   public int getInt(String attr){
@@ -159,13 +1012,8 @@ public class ModelBase {
   }
 
   public int getInt(String attr, int defaultValue){
-    String str = this.get(attr);
-    if(str == null) return defaultValue;
-    try {
-      return Integer.parseInt(str);
-    } catch (java.lang.NumberFormatException exc){
-    }
-    return defaultValue;
+    AttributeValue value = getParsed(attr);
+    return value == null ? defaultValue : value.getInt(defaultValue);
   }
 
   public long getLong(String attr){
@@ -173,14 +1021,8 @@ public class ModelBase {
   }
 
   public long getLong(String attr, long defaultValue){
-    String str = this.get(attr);
-    if(str == null) return defaultValue;
-
-    try {
-      return Long.parseLong(str);
-    } catch (java.lang.NumberFormatException exc){
-    }
-    return defaultValue;
+    AttributeValue value = getParsed(attr);
+    return value == null ? defaultValue : value.getLong(defaultValue);
   }
 
   public float getFloat(String attr){
@@ -188,13 +1030,8 @@ public class ModelBase {
   }
 
   public float getFloat(String attr, float defaultValue){
-    String str = this.get(attr);
-    if(str == null) return defaultValue;
-    try {
-      return Float.parseFloat(str);
-    } catch (java.lang.NumberFormatException exc){
-    }
-    return defaultValue;
+    AttributeValue value = getParsed(attr);
+    return value == null ? defaultValue : value.getFloat(defaultValue);
   }
 
   public void with(String attr, Consumer<String> func){ if(this.has(attr)) func.accept(this.get(attr)); }
@@ -239,25 +1076,62 @@ public class ModelBase {
   }
 
   public float[] getVecX(String attr, int count, float[] defaultValue){
-    String[] parts = get(attr, "").split(",");
+    return getVecInto(attr, new float[count], defaultValue);
+  }
 
-    float[] result = new float[count];
-    for(int i=0; i<count; i++){
-      if(Array.getLength(parts) > i){
-        try {
-          result[i] = Float.parseFloat(parts[i]);
-          continue;
-        } catch (java.lang.NumberFormatException exc){}
-      }
+  /**
+   * Writes the components of the specified vector attribute into the given array
+   * without allocating anything (after the first call for string-based values, which parses them once).
+   * Missing or invalid components are set to zero.
+   *
+   * @param attr The attribute name
+   * @param out The array to populate; its length specifies the number of components
+   * @return The given array
+   */
+  public float[] getVecInto(String attr, float[] out){
+    return getVecInto(attr, out, null);
+  }
 
-      if(defaultValue != null && Array.getLength(defaultValue) > i){
-        result[i] = defaultValue[i];
-        continue;
-      }
+  /**
+   * @param attr The attribute name
+   * @param out The array to populate; its length specifies the number of components
+   * @param defaultValue Provides the values for missing or invalid components (may be null)
+   * @return The given array
+   */
+  public float[] getVecInto(String attr, float[] out, float[] defaultValue){
+    AttributeValue value = getParsed(attr);
 
-      result[i] = 0.0f;
+    if(value != null){
+      value.getVec(out, out.length, defaultValue);
+      return out;
     }
 
-    return result;
+    for(int i=0; i<out.length; i++)
+      out[i] = (defaultValue != null && defaultValue.length > i) ? defaultValue[i] : 0.0f;
+
+    return out;
+  }
+
+  /**
+   * Gives the stored value of the specified attribute with its parsed-value cache,
+   * replacing the plain stored String with an AttributeValue on first use
+   * (concurrent readers might each replace it with their own, equivalent, AttributeValue)
+   * @param attr The attribute name
+   * @return The attribute's AttributeValue, or null if the attribute has no (or a null) value
+   */
+  AttributeValue getParsed(String attr){
+    Object value = lookup(attr);
+
+    if(value == null || value instanceof AttributeValue)
+      return (AttributeValue)value;
+
+    // the value itself doesn't change, so this isn't tracked as a change for the next snapshot
+    AttributeValue parsed = new AttributeValue((String)value);
+    replace(attr, parsed);
+    return parsed;
+  }
+
+  private static String toString(Object value){
+    return (value == null || value instanceof String) ? (String)value : ((AttributeValue)value).getString();
   }
 }
@@ -1,12 +1,303 @@
 package com.fuse.cms;
 
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Sorted view of a model collection which moves a model as soon as one of the attributes
+ * the comparator depends on changes (if that changes the model's sort position);
+ * when those attributes aren't specified, all attribute changes are observed
+ */
+class ModelSorter extends CollectionSorter<Model> {
+  /** the attributes the comparator depends on, or null to observe all attribute changes */
+  private String[] attrs;
+
+  public ModelSorter(CollectionBase<Model> source, CollectionBase<Model> target, Comparator<Model> comparator, String[] attrs){
+    super(source, target, comparator);
+    this.attrs = attrs;
+  }
+
+  @Override
+  protected void watch(Model m){
+    if(attrs == null){
+      m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+        this.retransform(m);
+      }, this);
+      return;
+    }
+
+    for(String attr : attrs)
+      m.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+        this.retransform(m);
+      }, this);
+  }
+
+  @Override
+  protected void unwatch(Model m){
+    if(attrs == null){
+      m.attributeChangeEvent().removeListeners(this);
+      return;
+    }
+
+    for(String attr : attrs)
+      m.removeAttributeListeners(attr, this);
+  }
+
+  /** Copies the attributes the comparator depends on (all attributes when they're not specified) */
+  @Override
+  protected Model copyKey(Model m, Model previousCopy){
+    Model key = previousCopy == null ? new Model() : previousCopy;
+
+    if(attrs == null){
+      key.copy(m);
+      return key;
+    }
+
+    for(String attr : attrs)
+      if(m.has(attr))
+        key.set(attr, m.get(attr));
+
+    return key;
+  }
+}
+
+/**
+ * Groups of a model collection (as ModelCollections) which move a model to another
+ * group as soon as its group key changes; when grouping by a single attribute, only changes
+ * of that attribute are observed, otherwise all attribute changes are
+ */
+class ModelGrouper<K> extends CollectionGrouper<Model, K> {
+  /** the grouping attribute, or null when grouping using a custom function */
+  private String attr;
+
+  public ModelGrouper(CollectionBase<Model> source, Function<Model, K> keyFunc, String attr){
+    super(source, keyFunc);
+    this.attr = attr;
+  }
+
+  @Override
+  protected Collection<Model> createGroup(){
+    return new ModelCollection();
+  }
+
+  @Override
+  protected void watch(Model m){
+    if(attr != null){
+      m.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+        this.retransform(m);
+      }, this);
+      return;
+    }
+
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      this.retransform(m);
+    }, this);
+  }
+
+  @Override
+  protected void unwatch(Model m){
+    if(attr != null)
+      m.removeAttributeListeners(attr, this);
+    else
+      m.attributeChangeEvent().removeListeners(this);
+  }
+}
+
+/**
+ * Live filtered view (as ModelCollection) of a model collection, which re-tests a model
+ * when one of the attributes the filter depends on changes (or any attribute,
+ * when those attributes aren't specified)
+ */
+class ModelLiveFilter extends CollectionLiveFilter<Model> {
+  /** the attributes the filter depends on, or null to observe all attribute changes */
+  private String[] attrs;
+
+  public ModelLiveFilter(CollectionBase<Model> source, CollectionBase<Model> target, Predicate<Model> func, String[] attrs){
+    super(source, target, func);
+    this.attrs = attrs;
+  }
+
+  @Override
+  protected void watch(Model m){
+    if(attrs == null){
+      m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+        this.retransform(m);
+      }, this);
+      return;
+    }
+
+    for(String attr : attrs)
+      m.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+        this.retransform(m);
+      }, this);
+  }
+
+  @Override
+  protected void unwatch(Model m){
+    if(attrs == null){
+      m.attributeChangeEvent().removeListeners(this);
+      return;
+    }
+
+    for(String attr : attrs)
+      m.removeAttributeListeners(attr, this);
+  }
+}
+
 public class ModelCollectionBase extends Collection<Model> {
 
+  /** lazily initialized by createIndex, maps attribute names to their index */
+  private Map<String, ModelIndex> indexes = null;
+  /** lazily initialized by aggregate, maps attribute names to their aggregate */
+  private Map<String, ModelAggregate> aggregates = null;
+  /** root of the key layouts shared by our models; only set when compact storage is enabled */
+  private ModelShape rootShape = null;
+
   /** Default constructor; only creates an instantiator for this collection using setInstantiator method */
   public ModelCollectionBase(){
     this.setInstantiator(() -> new Model());
   }
 
+  @Override public void destroy(){
+    // the indexes and aggregates themselves are extensions, which get cleaned up by our parent class
+    indexes = null;
+    aggregates = null;
+    setCompactStorage(false);
+    super.destroy();
+  }
+
+  /**
+   * Enables or disables compact storage for the models in this collection.
+   * When enabled, all current models and all models added in the future are
+   * switched to compact storage mode, where they share their attribute key layouts
+   * and each model only holds a flat array of values (see ModelBase.useShape).
+   * Disabling only stops the conversion of newly added models.
+   *
+   * @param enable Enables compact storage when true
+   */
+  public void setCompactStorage(boolean enable){
+    if(enable == (rootShape != null))
+      return;
+
+    if(!enable){
+      this.addEvent().removeListeners(rootShape);
+      rootShape = null;
+      return;
+    }
+
+    ModelShape shape = new ModelShape();
+    rootShape = shape;
+
+    this.each((Model m) -> {
+      m.useShape(shape);
+    });
+
+    this.addEvent().addListener((Model m) -> {
+      m.useShape(shape);
+    }, shape);
+  }
+
+  public boolean getCompactStorage(){
+    return rootShape != null;
+  }
+
+  /**
+   * Creates a hash index for the specified attribute, which turns
+   * findByAttr (and findById and loadModel for the "id" attribute) into
+   * constant-time lookups. The index stays current by listening to
+   * add/remove events of this collection and to attribute changes of its models.
+   *
+   * @param attr The attribute to index
+   * @return The created index, or the existing index if the attribute was already indexed
+   */
+  public ModelIndex createIndex(String attr){
+    ModelIndex index = getIndex(attr);
+    if(index != null)
+      return index;
+
+    index = new ModelIndex(this, attr);
+    index.enable();
+    addExtension(index);
+
+    if(indexes == null)
+      indexes = new HashMap<>();
+    indexes.put(attr, index);
+    return index;
+  }
+
+  /**
+   * @param attr The indexed attribute
+   * @return The index for the specified attribute, or null if the attribute isn't indexed
+   */
+  public ModelIndex getIndex(String attr){
+    return indexes == null ? null : indexes.get(attr);
+  }
+
+  /**
+   * Removes the index for the specified attribute (if there is one);
+   * lookups on that attribute fall back to scanning the collection
+   *
+   * @param attr The indexed attribute
+   * @return true if an index was removed
+   */
+  public boolean removeIndex(String attr){
+    ModelIndex index = getIndex(attr);
+    if(index == null)
+      return false;
+
+    indexes.remove(attr);
+    if(indexes.isEmpty())
+      indexes = null;
+
+    removeExtension(index);
+    return true;
+  }
+
+  /**
+   * Gives live aggregates (count, sum, average, min and max) of a numeric attribute,
+   * like col.aggregate("price").sum(). The aggregates are updated incrementally
+   * when models are added, removed or when their value for the attribute changes.
+   *
+   * @param attr The attribute to aggregate
+   * @return The created aggregate, or the existing aggregate if the attribute was already aggregated
+   */
+  public ModelAggregate aggregate(String attr){
+    ModelAggregate aggregate = aggregates == null ? null : aggregates.get(attr);
+    if(aggregate != null)
+      return aggregate;
+
+    aggregate = new ModelAggregate(this, attr);
+    aggregate.enable();
+    addExtension(aggregate);
+
+    if(aggregates == null)
+      aggregates = new HashMap<>();
+    aggregates.put(attr, aggregate);
+    return aggregate;
+  }
+
+  /**
+   * Stops and removes the aggregate for the specified attribute (if there is one)
+   *
+   * @param attr The aggregated attribute
+   * @return true if an aggregate was removed
+   */
+  public boolean removeAggregate(String attr){
+    ModelAggregate aggregate = aggregates == null ? null : aggregates.remove(attr);
+    if(aggregate == null)
+      return false;
+
+    if(aggregates.isEmpty())
+      aggregates = null;
+
+    removeExtension(aggregate);
+    return true;
+  }
+
   public Model findById(String id){
     return findByAttr("id", id, false);
   }
@@ -20,15 +311,18 @@ public class ModelCollectionBase extends Collection<Model> {
   }
 
   public Model findByAttr(String attr, String value, boolean createIfNotFound){
-    // System.out.println("findById: "+id);
-
-    // TODO nicer functional programming implementation?
-    for(int idx=0; idx<size(); idx++){
-      Model m = get(idx);
+    ModelIndex index = getIndex(attr);
 
-      if(m.get(attr, "").equals(value)){
-        // System.out.println("FOUND model with id: "+id);
+    if(index != null){
+      Model m = index.find(value);
+      if(m != null)
         return m;
+    } else {
+      for(int idx=0; idx<size(); idx++){
+        Model m = get(idx);
+
+        if(m.get(attr, "").equals(value))
+          return m;
       }
     }
 
@@ -58,6 +352,141 @@ public class ModelCollectionBase extends Collection<Model> {
     });
   }
 
+  /**
+   * Creates a live view of this collection, sorted using the given comparator,
+   * which also moves models as soon as their attribute changes affect their sort position
+   * (see Collection.sorted)
+   *
+   * @param comparator Provides the sort order
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new ModelCollection with the sorted content of this collection
+   */
+  @Override
+  public ModelCollection sorted(Comparator<Model> comparator, Object owner){
+    return sorted(comparator, null, owner);
+  }
+
+  @Override
+  public ModelCollection sorted(Comparator<Model> comparator){
+    return sorted(comparator, null, null);
+  }
+
+  /**
+   * Creates a live sorted view of this collection which only moves a model
+   * when one of the attributes the comparator depends on changes
+   *
+   * @param comparator Provides the sort order
+   * @param attrs The attributes the comparator depends on, null to check the position on any attribute change
+   * @return A new ModelCollection with the sorted content of this collection
+   */
+  public ModelCollection sorted(Comparator<Model> comparator, String[] attrs){
+    return sorted(comparator, attrs, null);
+  }
+
+  /**
+   * @param comparator Provides the sort order
+   * @param attrs The attributes the comparator depends on, null to check the position on any attribute change
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new ModelCollection with the sorted content of this collection
+   */
+  public ModelCollection sorted(Comparator<Model> comparator, String[] attrs, Object owner){
+    ModelCollection target = new ModelCollection();
+    ModelSorter sorter = new ModelSorter(this, target, comparator, attrs);
+    sorter.setup();
+    addTransformer(sorter, owner);
+    return target;
+  }
+
+  /**
+   * Creates a live filtered view of this collection which re-tests a model
+   * as soon as any of its attributes changes (see Collection.liveFiltered)
+   *
+   * @param func Predicate function that provides the filter-logic
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new ModelCollection with the accepted models of this collection
+   */
+  @Override
+  public ModelCollection liveFiltered(Predicate<Model> func, Object owner){
+    return liveFiltered(func, null, owner);
+  }
+
+  @Override
+  public ModelCollection liveFiltered(Predicate<Model> func){
+    return liveFiltered(func, null, null);
+  }
+
+  /**
+   * Creates a live filtered view of this collection which only re-tests a model
+   * when one of the attributes the filter depends on changes
+   *
+   * @param func Predicate function that provides the filter-logic
+   * @param attrs The attributes the filter depends on, null to re-test on any attribute change
+   * @return A new ModelCollection with the accepted models of this collection
+   */
+  public ModelCollection liveFiltered(Predicate<Model> func, String[] attrs){
+    return liveFiltered(func, attrs, null);
+  }
+
+  /**
+   * @param func Predicate function that provides the filter-logic
+   * @param attrs The attributes the filter depends on, null to re-test on any attribute change
+   * @param owner Owner which can be used to stop the view from updating using stopTransforms
+   * @return A new ModelCollection with the accepted models of this collection
+   */
+  public ModelCollection liveFiltered(Predicate<Model> func, String[] attrs, Object owner){
+    ModelCollection target = new ModelCollection();
+    ModelLiveFilter filter = new ModelLiveFilter(this, target, func, attrs);
+    filter.setup();
+    addTransformer(filter, owner);
+    return target;
+  }
+
+  /**
+   * Creates a live view of the models with a specific attribute value, which also
+   * moves models into or out of the view when that attribute changes
+   *
+   * @param attrName Name of the filter attribute
+   * @param value Value the attribute should have for the model to be in the view
+   * @return A new ModelCollection with the matching models of this collection
+   */
+  public ModelCollection liveFiltered(String attrName, String value){
+    return liveFiltered((Model m) -> {
+      String modelValue = m.get(attrName, null);
+      return (value == null && modelValue == null) || ((value != null) && value.equals(modelValue));
+    }, new String[]{ attrName }, null);
+  }
+
+  /**
+   * Creates live groups (ModelCollections) of the models in this collection,
+   * which also move models to another group when an attribute change changes their group key
+   * (see Collection.groupBy)
+   *
+   * @param keyFunc Gives the group key of a model
+   * @param owner Owner which can be used to stop the groups from updating using stopTransforms
+   * @return An unmodifiable map of group keys to group collections
+   */
+  @Override
+  public <K> Map<K, Collection<Model>> groupBy(Function<Model, K> keyFunc, Object owner){
+    return groupBy(new ModelGrouper<K>(this, keyFunc, null), owner);
+  }
+
+  /**
+   * Creates live groups (ModelCollections) of the models in this collection by the value of the given attribute;
+   * routing models by hash and only observing changes of that attribute
+   *
+   * @param attr The grouping attribute
+   * @return An unmodifiable map of attribute values (null for models without the attribute) to group collections
+   */
+  public Map<String, Collection<Model>> groupBy(String attr){
+    return groupBy(new ModelGrouper<String>(this, (Model m) -> m.get(attr), attr), null);
+  }
+
+  private <K> Map<K, Collection<Model>> groupBy(ModelGrouper<K> grouper, Object owner){
+    grouper.setup();
+    addTransformer(grouper, owner);
+    return Collections.unmodifiableMap(grouper.getGroups());
+  }
+
   /** checks for existing model with same the primary attribute */
   public void loadModel(Model m){
     String primaryKeyAttributeName = "id"; // TODO: make instance var and configurable
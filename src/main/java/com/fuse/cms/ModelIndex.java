@@ -0,0 +1,163 @@
+package com.fuse.cms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash-based lookup table that maps the values of a single attribute
+ * to the models in a collection (see ModelCollectionBase.createIndex).
+ * The index keeps itself current by listening to the collection's add/remove
+ * events and to the change event of the indexed attribute of every model in the collection.
+ *
+ * Models without a value for the attribute are indexed under an empty string ("").
+ */
+public class ModelIndex extends CollectionExtension<Model> {
+  private String attr;
+  /**
+   * maps attribute values to a single Model, or to a (hash-based, insertion-ordered) Set of Models
+   * when multiple models share the same value, so large groups are updated in constant time
+   */
+  private Map<String, Object> entries;
+
+  public ModelIndex(CollectionBase<Model> collection, String attr){
+    super(collection);
+    this.attr = attr;
+    this.entries = new HashMap<>();
+  }
+
+  @Override
+  protected void setup(){
+    CollectionBase<Model> col = getCollection();
+
+    col.each((Model m) -> {
+      this.insert(m);
+    });
+
+    col.addEvent().addListener((Model m) -> {
+      this.insert(m);
+    }, this);
+
+    col.removeEvent().addListener((Model m) -> {
+      this.remove(m);
+    }, this);
+  }
+
+  @Override
+  protected void destroy(){
+    CollectionBase<Model> col = getCollection();
+
+    if(col != null){
+      col.addEvent().removeListeners(this);
+      col.removeEvent().removeListeners(this);
+
+      for(int idx=0; idx<col.size(); idx++)
+        col.get(idx).removeAttributeListeners(attr, this);
+    }
+
+    entries.clear();
+    super.destroy();
+  }
+
+  /** @return The indexed attribute */
+  public String getAttr(){
+    return attr;
+  }
+
+  /**
+   * @param value The attribute value to look for
+   * @return The model with the given value, if multiple models share this value the one that was indexed first is returned
+   */
+  @SuppressWarnings("unchecked")
+  public Model find(String value){
+    Object entry = entries.get(value);
+
+    if(entry == null || Model.class.isInstance(entry))
+      return (Model)entry;
+
+    return ((Set<Model>)entry).iterator().next();
+  }
+
+  /**
+   * @param value The attribute value to look for
+   * @return An unmodifiable list of all models with the given value, in the order in which they were indexed
+   */
+  @SuppressWarnings("unchecked")
+  public List<Model> findAll(String value){
+    Object entry = entries.get(value);
+
+    if(entry == null)
+      return Collections.emptyList();
+
+    if(Model.class.isInstance(entry))
+      return Collections.singletonList((Model)entry);
+
+    return Collections.unmodifiableList(new ArrayList<>((Set<Model>)entry));
+  }
+
+  private void insert(Model m){
+    put(m.get(attr, ""), m);
+
+    m.getAttributeChangeEvent(attr).addListener((ModelBase.AttributeChangeArgs args) -> {
+      take(args.previousValue == null ? "" : args.previousValue, m);
+      put(args.value == null ? "" : args.value, m);
+    }, this);
+  }
+
+  private void remove(Model m){
+    m.removeAttributeListeners(attr, this);
+    take(m.get(attr, ""), m);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void put(String value, Model m){
+    Object entry = entries.get(value);
+
+    if(entry == null){
+      entries.put(value, m);
+      return;
+    }
+
+    if(entry == m)
+      return;
+
+    Set<Model> set;
+
+    if(Model.class.isInstance(entry)){
+      set = new LinkedHashSet<>();
+      set.add((Model)entry);
+      entries.put(value, set);
+    } else {
+      set = (Set<Model>)entry;
+    }
+
+    set.add(m);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void take(String value, Model m){
+    Object entry = entries.get(value);
+
+    if(entry == null)
+      return;
+
+    if(entry == m){
+      entries.remove(value);
+      return;
+    }
+
+    if(Model.class.isInstance(entry))
+      return;
+
+    Set<Model> set = (Set<Model>)entry;
+    set.remove(m);
+
+    // collapse back into a single-model entry
+    if(set.size() == 1)
+      entries.put(value, set.iterator().next());
+  }
+}
@@ -0,0 +1,291 @@
+package com.fuse.cms;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persistent (immutable) hash array mapped trie of attribute names to (String) values.
+ * Every modification returns a new trie which shares all untouched nodes with
+ * the original, so it only costs the nodes on the path to the modified attribute.
+ * All fields are final, so tries can safely be handed to other threads.
+ */
+final class AttributeTrie {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /** returned by lookup for missing keys, as null is a valid attribute value */
+  private static final Object NOT_FOUND = new Object();
+
+  static final AttributeTrie EMPTY = new AttributeTrie(BitmapNode.EMPTY, 0);
+
+  private abstract static class Node {
+    /** @return The value of the given key, or NOT_FOUND */
+    abstract Object lookup(int shift, int hash, String key);
+    abstract Node with(int shift, int hash, String key, String value, boolean[] added);
+    abstract void each(BiConsumer<String, String> func);
+  }
+
+  /**
+   * Holds up to 32 entries, indexed by the bitmap; every entry is a key/value pair,
+   * or a null key with a sub node that holds entries with the same hash bits until this level
+   */
+  private static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    final int bitmap;
+    final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array){
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit){
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override Object lookup(int shift, int hash, String key){
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if((bitmap & bit) == 0)
+        return NOT_FOUND;
+
+      int idx = index(bit);
+      Object keyOrNull = array[2*idx];
+
+      if(keyOrNull == null)
+        return ((Node)array[2*idx+1]).lookup(shift + BITS, hash, key);
+
+      return key.equals(keyOrNull) ? array[2*idx+1] : NOT_FOUND;
+    }
+
+    @Override Node with(int shift, int hash, String key, String value, boolean[] added){
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int idx = index(bit);
+
+      if((bitmap & bit) == 0){
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, 2*idx);
+        newArray[2*idx] = key;
+        newArray[2*idx+1] = value;
+        System.arraycopy(array, 2*idx, newArray, 2*idx+2, array.length - 2*idx);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+
+      Object keyOrNull = array[2*idx];
+      Object valueOrNode = array[2*idx+1];
+
+      if(keyOrNull == null){
+        Node sub = ((Node)valueOrNode).with(shift + BITS, hash, key, value, added);
+        return sub == valueOrNode ? this : replace(idx, null, sub);
+      }
+
+      if(key.equals(keyOrNull))
+        return Objects.equals(value, valueOrNode) ? this : replace(idx, keyOrNull, value);
+
+      // two different keys with the same hash bits at this level; move both into a sub node
+      added[0] = true;
+      return replace(idx, null, createNode(shift + BITS, (String)keyOrNull, (String)valueOrNode, hash, key, value));
+    }
+
+    private BitmapNode replace(int idx, Object key, Object valueOrNode){
+      Object[] newArray = array.clone();
+      newArray[2*idx] = key;
+      newArray[2*idx+1] = valueOrNode;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    @Override void each(BiConsumer<String, String> func){
+      for(int idx=0; idx<array.length; idx+=2){
+        if(array[idx] == null)
+          ((Node)array[idx+1]).each(func);
+        else
+          func.accept((String)array[idx], (String)array[idx+1]);
+      }
+    }
+  }
+
+  /** Holds the key/value pairs of different keys with the exact same hash */
+  private static final class CollisionNode extends Node {
+    final int hash;
+    final Object[] array;
+
+    CollisionNode(int hash, Object[] array){
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(int hash, String key){
+      if(hash != this.hash)
+        return -1;
+
+      for(int idx=0; idx<array.length; idx+=2)
+        if(key.equals(array[idx]))
+          return idx;
+
+      return -1;
+    }
+
+    @Override Object lookup(int shift, int hash, String key){
+      int idx = indexOf(hash, key);
+      return idx == -1 ? NOT_FOUND : array[idx+1];
+    }
+
+    @Override Node with(int shift, int hash, String key, String value, boolean[] added){
+      if(hash != this.hash){
+        // nest this node in a bitmap node, so the new key can branch off
+        BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this});
+        return parent.with(shift, hash, key, value, added);
+      }
+
+      int idx = indexOf(hash, key);
+
+      if(idx != -1){
+        if(Objects.equals(value, array[idx+1]))
+          return this;
+
+        Object[] newArray = array.clone();
+        newArray[idx+1] = value;
+        return new CollisionNode(hash, newArray);
+      }
+
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length+1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override void each(BiConsumer<String, String> func){
+      for(int idx=0; idx<array.length; idx+=2)
+        func.accept((String)array[idx], (String)array[idx+1]);
+    }
+  }
+
+  private static Node createNode(int shift, String key1, String value1, int hash2, String key2, String value2){
+    int hash1 = key1.hashCode();
+
+    if(hash1 == hash2)
+      return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+
+    boolean[] added = new boolean[1];
+    return BitmapNode.EMPTY
+      .with(shift, hash1, key1, value1, added)
+      .with(shift, hash2, key2, value2, added);
+  }
+
+  private final Node root;
+  private final int size;
+
+  private AttributeTrie(Node root, int size){
+    this.root = root;
+    this.size = size;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean containsKey(String key){
+    return root.lookup(0, key.hashCode(), key) != NOT_FOUND;
+  }
+
+  public String get(String key){
+    Object value = root.lookup(0, key.hashCode(), key);
+    return value == NOT_FOUND ? null : (String)value;
+  }
+
+  /**
+   * @param key The attribute name
+   * @param value The attribute value (may be null)
+   * @return A trie with the given attribute value, or this trie if it already has that value
+   */
+  public AttributeTrie with(String key, String value){
+    boolean[] added = new boolean[1];
+    Node newRoot = root.with(0, key.hashCode(), key, value, added);
+    return newRoot == root ? this : new AttributeTrie(newRoot, added[0] ? size + 1 : size);
+  }
+
+  public void each(BiConsumer<String, String> func){
+    root.each(func);
+  }
+}
+
+/**
+ * Immutable, read-only view of the attributes of a model at the moment
+ * the snapshot was taken (see ModelBase.snapshot). Snapshots are backed by
+ * a persistent trie which they share with subsequent snapshots of the same model,
+ * and can safely be handed to other threads.
+ *
+ * Any attempt to modify a snapshot throws an UnsupportedOperationException.
+ */
+public class ModelSnapshot extends ModelBase {
+  private final AttributeTrie trie;
+
+  ModelSnapshot(AttributeTrie trie){
+    this.trie = trie;
+  }
+
+  AttributeTrie getTrie(){
+    return trie;
+  }
+
+  @Override public boolean has(String attr){
+    return trie.containsKey(attr);
+  }
+
+  @Override public String get(String attr){
+    return trie.get(attr);
+  }
+
+  @Override public void set(String attr, String val){
+    throw new UnsupportedOperationException("ModelSnapshot is read-only");
+  }
+
+  @Override public void set(String attr, float[] vec){
+    throw new UnsupportedOperationException("ModelSnapshot is read-only");
+  }
+
+  @Override public void each(BiConsumer<String, String> func){
+    trie.each(func);
+  }
+
+  @Override public int size(){
+    return trie.size();
+  }
+
+  /** @return An unmodifiable copy of the attribute names */
+  @Override public Set<String> getAttributeNames(){
+    Set<String> names = new LinkedHashSet<>();
+    trie.each((attr, value) -> names.add(attr));
+    return Collections.unmodifiableSet(names);
+  }
+
+  @Override public void batch(Consumer<ModelBase> func){
+    throw new UnsupportedOperationException("ModelSnapshot is read-only");
+  }
+
+  @Override public void beginBatch(){
+    throw new UnsupportedOperationException("ModelSnapshot is read-only");
+  }
+
+  @Override void useShape(ModelShape rootShape){
+    // snapshots always use their trie
+  }
+
+  /** @return this snapshot, as it never changes */
+  @Override public ModelSnapshot snapshot(){
+    return this;
+  }
+
+  /** Parses (but doesn't cache, as snapshots can be shared between threads) the value of the specified attribute */
+  @Override AttributeValue getParsed(String attr){
+    String value = get(attr);
+    return value == null ? null : new AttributeValue(value);
+  }
+}
@@ -67,6 +67,18 @@ public class CollectionBaseTest {
       assertEquals(collection.size(), 0);
     }
 
+    @Test public void lazyEvents(){
+      CollectionBase<String> col = new CollectionBase<>(true);
+      col.add("a");
+      assertEquals(col.addEvent == null, true);
+      // the accessor creates the event
+      assertEquals(col.addEvent() == col.addEvent, true);
+      assertEquals(col.removeEvent == null, true);
+
+      assertEquals(new CollectionBase<String>().addEvent == null, false);
+      assertEquals(new Collection<String>(true).addEvent == null, true);
+    }
+
     @Test public void removeEventOnClear(){
       strings = new ArrayList<String>();
 
@@ -167,6 +179,37 @@ public class CollectionBaseTest {
       assertEquals(foundModel, m2);
     }
 
+    @Test public void queries(){
+      CollectionBase<Model> col = new CollectionBase<>();
+      for(int i=0; i<10; i++){
+        Model m = new Model();
+        m.set("age", i);
+        col.add(m);
+      }
+
+      assertEquals(col.findFirst((Model m) -> m.getInt("age") > 4), col.get(5));
+      assertEquals(col.findFirst((Model m) -> m.getInt("age") > 10), null);
+      assertEquals(col.indexWhere((Model m) -> m.getInt("age") == 3), 3);
+      assertEquals(col.indexWhere((Model m) -> m.getInt("age") == 30), -1);
+      assertEquals(col.anyMatch((Model m) -> m.getInt("age") == 9), true);
+      assertEquals(col.anyMatch((Model m) -> m.getInt("age") == 10), false);
+      assertEquals(col.count((Model m) -> m.getInt("age") % 2 == 0), 5);
+
+      List<Model> result = new ArrayList<>();
+      result.add(col.get(0));
+      assertEquals(col.findAll((Model m) -> m.getInt("age") >= 8, result), result);
+      assertEquals(result.size(), 3);
+      assertEquals(result.get(2), col.get(9));
+
+      // modifications made by the predicate are queued until the query is done
+      assertEquals(col.findFirst((Model m) -> {
+        col.remove(m);
+        return true;
+      }).getInt("age"), 0);
+      assertEquals(col.size(), 9);
+      assertEquals(col.isLocked(), false);
+    }
+
     @Test public void eachWithIndex(){
       CollectionBase<Model> col = new CollectionBase<>();
       col.add(new Model());
@@ -203,4 +246,234 @@ public class CollectionBaseTest {
       stri.str = "oi";
       assertEquals(col.get(0).str, "oi");
     }
+
+    @Test public void setIdentityIndex(){
+      CollectionBase<Model> col = new CollectionBase<>();
+      List<Model> reference = new ArrayList<>();
+      Model[] models = new Model[20];
+      for(int i=0; i<models.length; i++)
+        models[i] = new Model();
+
+      assertEquals(col.getIdentityIndex(), false);
+      col.setIdentityIndex(true);
+      assertEquals(col.getIdentityIndex(), true);
+
+      // random adds (including duplicates) and removes, compared against a plain list
+      java.util.Random rand = new java.util.Random(1);
+      for(int step=0; step<5000; step++){
+        Model m = models[rand.nextInt(models.length)];
+        int action = rand.nextInt(10);
+
+        if(action < 5){
+          col.add(m);
+          reference.add(m);
+        } else if(action < 8){
+          assertEquals(col.remove(m), reference.remove(m));
+        } else if(action < 9 && !reference.isEmpty()){
+          int idx = rand.nextInt(reference.size());
+          col.set(idx, m);
+          reference.set(idx, m);
+        } else {
+          // modifications that bypass the index
+          col.sort((a, b) -> Integer.compare(System.identityHashCode(a), System.identityHashCode(b)));
+          reference.clear();
+          reference.addAll(col);
+        }
+
+        Model probe = models[rand.nextInt(models.length)];
+        assertEquals(col.indexOf(probe), reference.indexOf(probe));
+        assertEquals(col.contains(probe), reference.contains(probe));
+      }
+
+      assertEquals(col, reference);
+
+      col.setIdentityIndex(false);
+      assertEquals(col.indexOf(models[0]), reference.indexOf(models[0]));
+    }
+
+    @Test public void setIdentityIndex_removeWhileLocked(){
+      CollectionBase<Model> col = new CollectionBase<>();
+      col.setIdentityIndex(true);
+
+      for(int i=0; i<10; i++){
+        Model m = new Model();
+        m.set("idx", i);
+        col.add(m);
+      }
+
+      // queued removals are processed after each finishes
+      col.each((Model m) -> {
+        if(m.getInt("idx") % 2 == 0)
+          col.remove(m);
+      });
+
+      assertEquals(col.size(), 5);
+      for(int i=0; i<col.size(); i++){
+        assertEquals(col.get(i).getInt("idx"), i*2+1);
+        assertEquals(col.indexOf(col.get(i)), i);
+      }
+    }
+
+    @Test public void bulkOperations(){
+      CollectionBase<String> col = new CollectionBase<>();
+      List<String> events = new ArrayList<>();
+      col.addBatchEvent().addListener((List<String> items) -> events.add("addBatch"+items));
+      col.removeBatchEvent().addListener((List<String> items) -> events.add("removeBatch"+items));
+      col.addEvent().addListener((String item) -> events.add("add:"+item+(col.isDispatchingBatch() ? "(batch)" : "")));
+      col.removeEvent().addListener((String item) -> events.add("remove:"+item+(col.isDispatchingBatch() ? "(batch)" : "")));
+      col.beforeAddTest().addListener((String item) -> !item.equals("x"));
+
+      assertEquals(col.addAll(java.util.Arrays.asList("a", "x", "b", "c", "d")), true);
+      assertEquals(String.join(",", col), "a,b,c,d");
+      assertEquals(events.toString(), "[addBatch[a, b, c, d], add:a(batch), add:b(batch), add:c(batch), add:d(batch)]");
+      assertEquals(col.addAll(java.util.Arrays.asList("x")), false);
+
+      events.clear();
+      col.add(1, "e");
+      assertEquals(String.join(",", col), "a,e,b,c,d");
+      assertEquals(events.toString(), "[addBatch[e], add:e(batch)]");
+
+      events.clear();
+      assertEquals(col.removeAll(java.util.Arrays.asList("e", "c", "z")), true);
+      assertEquals(String.join(",", col), "a,b,d");
+      assertEquals(events.toString(), "[removeBatch[e, c], remove:e(batch), remove:c(batch)]");
+
+      events.clear();
+      col.removeRange(0, 2);
+      assertEquals(String.join(",", col), "d");
+      assertEquals(events.toString(), "[removeBatch[a, b], remove:a(batch), remove:b(batch)]");
+
+      events.clear();
+      assertEquals(col.set(0, "f"), "d");
+      assertEquals(col.set(0, "x"), null);
+      assertEquals(String.join(",", col), "f");
+      assertEquals(events.toString(), "[remove:d, add:f]");
+    }
+
+    @Test public void bulkOperationsWhileLocked(){
+      CollectionBase<String> col = new CollectionBase<>();
+      List<String> events = new ArrayList<>();
+      col.addBatchEvent().addListener((List<String> items) -> events.add("addBatch"+items));
+      col.removeBatchEvent().addListener((List<String> items) -> events.add("removeBatch"+items));
+      col.addAll(java.util.Arrays.asList("a", "b", "c"));
+      events.clear();
+
+      col.each((String item) -> {
+        if(item.equals("a")){
+          assertEquals(col.addAll(java.util.Arrays.asList("d", "e")), false);
+          col.removeRange(0, 1);
+          col.removeAll(java.util.Arrays.asList("c"));
+        }
+      });
+
+      assertEquals(String.join(",", col), "b,d,e");
+      assertEquals(events.toString(), "[addBatch[d, e], removeBatch[a], removeBatch[c]]");
+
+      // set is queued like the other modifications
+      col.each((String item) -> {
+        if(item.equals("b")){
+          col.removeRange(0, 1);
+          assertEquals(col.set(0, "x"), null);
+        }
+      });
+
+      assertEquals(String.join(",", col), "x,e");
+
+      // addAll at an index follows the List contract
+      try {
+        col.addAll(-1, java.util.Arrays.asList("y"));
+        assertEquals("addAll(-1, items) should throw", "");
+      } catch(IndexOutOfBoundsException exc){}
+
+      assertEquals(String.join(",", col), "x,e");
+    }
+
+    @Test public void queuedModsCoalesce(){
+      CollectionBase<String> col = new CollectionBase<>();
+      col.add("a");
+      col.add("b");
+      List<String> events = new ArrayList<>();
+      col.addEvent().addListener((String item) -> events.add("+"+item));
+      col.removeEvent().addListener((String item) -> events.add("-"+item));
+
+      // an item that's added and removed again while locked is never replayed
+      col.each((String item) -> {
+        if(!item.equals("a"))
+          return;
+        col.add("c");
+        col.add("d");
+        col.remove("c");
+        col.remove("a");
+        // "b" is already in the collection; both are replayed
+        col.add("b");
+        col.remove("b");
+      });
+
+      assertEquals(String.join(",", events), "+d,-a,+b,-b");
+      assertEquals(String.join(",", col), "d,b");
+
+      // a clear makes everything queued before it redundant
+      events.clear();
+      col.each((String item) -> {
+        col.add("e");
+        col.remove(item);
+        col.clear();
+        col.add("f");
+      });
+
+      assertEquals(String.join(",", events), "-b,-d,+f");
+      assertEquals(String.join(",", col), "f");
+    }
+
+    @Test public void setDispatchOnUpdate(){
+      CollectionBase<String> col = new CollectionBase<>();
+      col.add("a");
+      col.add("b");
+      List<String> events = new ArrayList<>();
+      col.addBatchEvent().addListener((List<String> items) -> events.add("added "+String.join(",", items)));
+      col.removeBatchEvent().addListener((List<String> items) -> events.add("removed "+String.join(",", items)));
+      col.addEvent().addListener((String item) -> events.add("+"+item));
+
+      col.setDispatchOnUpdate(true);
+      col.add("c");
+      col.add("d");
+      col.remove("c");
+      col.remove("a");
+      col.remove("b");
+      col.add("b");
+      assertEquals(events.size(), 0);
+      assertEquals(String.join(",", col), "d,b");
+
+      // only the net changes are delivered, as batches
+      col.update();
+      assertEquals(String.join(";", events), "removed a;added d;+d");
+      col.update();
+      assertEquals(events.size(), 3);
+
+      // disabling delivers the pending events
+      col.clear();
+      col.setDispatchOnUpdate(false);
+      assertEquals(events.get(3), "removed b,d");
+      col.add("e");
+      assertEquals(events.get(4), "+e");
+    }
+
+    @Test public void clearWithBatchEvent(){
+      CollectionBase<String> col = new CollectionBase<>();
+      col.setIdentityIndex(true);
+      col.addAll(java.util.Arrays.asList("a", "b", "c"));
+
+      List<String> events = new ArrayList<>();
+      col.removeBatchEvent().addListener((List<String> items) -> events.add("removeBatch"+items));
+      col.removeEvent().addListener((String item) -> events.add("remove:"+item));
+
+      col.clear();
+      assertEquals(col.size(), 0);
+      assertEquals(col.indexOf("a"), -1);
+      assertEquals(events.toString(), "[removeBatch[c, b, a], remove:c, remove:b, remove:a]");
+
+      // nothing to clear; no events
+      col.clear();
+      assertEquals(events.size(), 4);
+    }
 }
@@ -0,0 +1,244 @@
+package com.fuse.cms;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Not part of the regular test run (surefire only picks up *Test classes),
+ * run with: mvn test -P benchmark
+ */
+public class CollectionBenchmark {
+
+  private static final int COUNT = 100000;
+
+  private static class Item {
+    public int value;
+    public Item(int value){ this.value = value; }
+  }
+
+  private Collection<Item> createSource(){
+    Collection<Item> source = new Collection<>();
+    for(int i=0; i<COUNT; i++)
+      source.add(new Item(i));
+    return source;
+  }
+
+  private void report(String name, long plainNanos, long indexedNanos){
+    System.out.println("Collection "+name+" with "+COUNT+" items; "
+      +"linear scans: "+(plainNanos / 1000000)+"ms, identity index: "+(indexedNanos / 1000000)+"ms");
+  }
+
+  @Test public void sync(){
+    Collection<Item> source = createSource();
+
+    // "before"; a syncer on a collection without identity index
+    Collection<Item> plain = new Collection<>();
+    long t = System.nanoTime();
+    new CollectionSyncer<Item>(plain).addSource(source);
+    long plainNanos = System.nanoTime()-t;
+
+    Collection<Item> indexed = new Collection<>();
+    t = System.nanoTime();
+    indexed.sync(source);
+    long indexedNanos = System.nanoTime()-t;
+
+    assertEquals(plain.size(), COUNT);
+    assertEquals(indexed.size(), COUNT);
+    report("sync", plainNanos, indexedNanos);
+
+    // remove every tenth item from the source; both targets look up and remove them
+    t = System.nanoTime();
+    for(int i=COUNT-1; i>=0; i-=10)
+      source.remove(i);
+    long removeNanos = System.nanoTime()-t;
+
+    assertEquals(plain.size(), COUNT - COUNT/10);
+    assertEquals(indexed.size(), COUNT - COUNT/10);
+    System.out.println("Collection remove "+(COUNT/10)+" synced items (from both targets): "+(removeNanos / 1000000)+"ms");
+  }
+
+  @Test public void filtered(){
+    Collection<Item> source = createSource();
+
+    // "before"; sync and filter a collection without identity index
+    long t = System.nanoTime();
+    Collection<Item> plain = new Collection<>();
+    new CollectionSyncer<Item>(plain).addSource(source);
+    plain.accept((Item item) -> item.value % 2 == 0);
+    long plainNanos = System.nanoTime()-t;
+
+    t = System.nanoTime();
+    Collection<Item> indexed = source.filtered((Item item) -> item.value % 2 == 0);
+    long indexedNanos = System.nanoTime()-t;
+
+    assertEquals(plain.size(), COUNT/2);
+    assertEquals(indexed.size(), COUNT/2);
+    report("filtered", plainNanos, indexedNanos);
+  }
+
+  @Test public void clear(){
+    Collection<Item> source = createSource();
+    Collection<Item> synced = new Collection<>();
+    synced.sync(source);
+    Collection<Item> transformed = source.transform((Item item) -> new Item(item.value));
+
+    // "before"; item-by-item removal from the tail, like the original clear
+    Collection<Item> plain = createSource();
+    long t = System.nanoTime();
+    for(int i=plain.size()-1; i>=0; i--)
+      plain.remove(plain.get(i));
+    long plainNanos = System.nanoTime()-t;
+
+    t = System.nanoTime();
+    source.clear();
+    long clearNanos = System.nanoTime()-t;
+
+    assertEquals(plain.size(), 0);
+    assertEquals(synced.size(), 0);
+    assertEquals(transformed.size(), 0);
+    System.out.println("Collection clear "+COUNT+" items; item-by-item (unobserved): "+(plainNanos / 1000000)
+      +"ms, clear (synced and transformed): "+(clearNanos / 1000000)+"ms");
+  }
+
+  @Test public void transformRemove(){
+    Collection<Item> source = createSource();
+    // so looking up the removed item in the source itself isn't a linear scan
+    source.setIdentityIndex(true);
+    Collection<Item> transformed = source.transform((Item item) -> new Item(item.value));
+    int removals = 10000;
+
+    // build the (lazy) indexes up front; measure only the removals
+    source.contains(null);
+    transformed.contains(null);
+
+    long t = System.nanoTime();
+    for(int i=0; i<removals; i++)
+      source.remove(source.size()-1);
+    long nanos = System.nanoTime()-t;
+
+    assertEquals(transformed.size(), COUNT - removals);
+    System.out.println("Collection transformed remove with "+COUNT+" items: "
+      +String.format("%.1f", (double)nanos / removals / 1000.0)+"us per removal");
+  }
+
+  @Test public void rollingLog(){
+    int capacity = 10000, appends = 200000;
+
+    // "before"; shifting out the oldest item, like the original fifo limit
+    Collection<Item> shifting = new Collection<>();
+    long t = System.nanoTime();
+    for(int i=0; i<appends; i++){
+      if(shifting.size() == capacity)
+        shifting.remove(0);
+      shifting.add(new Item(i));
+    }
+    long shiftNanos = System.nanoTime()-t;
+
+    Collection<Item> fifo = new Collection<>();
+    fifo.setLimitFifo(capacity);
+    t = System.nanoTime();
+    for(int i=0; i<appends; i++)
+      fifo.add(new Item(i));
+    long ringNanos = System.nanoTime()-t;
+
+    assertEquals(fifo.size(), capacity);
+    assertEquals(fifo.get(0).value, shifting.get(0).value);
+    assertEquals(fifo.get(capacity-1).value, appends-1);
+    System.out.println("Collection fifo limit of "+capacity+" items, "+appends+" appends; "
+      +"shifting: "+(shiftNanos / 1000000)+"ms, ring buffer: "+(ringNanos / 1000000)+"ms");
+  }
+
+  /** the original findFirst; copies all items before testing them */
+  private static <T> T copyingFindFirst(CollectionBase<T> col, Predicate<T> predicate){
+    List<T> tmpItems = new ArrayList<T>();
+    tmpItems.addAll(col);
+
+    for(T item : tmpItems)
+      if(predicate.test(item))
+        return item;
+
+    return null;
+  }
+
+  private static long allocatedBytes(){
+    return ((com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean())
+      .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @Test public void findFirst(){
+    Collection<Item> source = createSource();
+    int lookups = 2000;
+    Item sink = null;
+
+    for(int target : new int[]{ 0, COUNT-1 }){
+      // warm up both
+      for(int i=0; i<lookups; i++){
+        sink = copyingFindFirst(source, (Item item) -> item.value == target);
+        sink = source.findFirst((Item item) -> item.value == target);
+      }
+
+      long bytes = allocatedBytes();
+      long t = System.nanoTime();
+      for(int i=0; i<lookups; i++)
+        sink = copyingFindFirst(source, (Item item) -> item.value == target);
+      long copyNanos = System.nanoTime()-t;
+      long copyBytes = allocatedBytes()-bytes;
+
+      bytes = allocatedBytes();
+      t = System.nanoTime();
+      for(int i=0; i<lookups; i++)
+        sink = source.findFirst((Item item) -> item.value == target);
+      long inPlaceNanos = System.nanoTime()-t;
+      long inPlaceBytes = allocatedBytes()-bytes;
+
+      assertEquals(sink.value, target);
+      System.out.println("Collection findFirst of item "+target+" in "+COUNT+" items; "
+        +"copying: "+String.format("%.1f", (double)copyNanos / lookups / 1000.0)+"us, "+(copyBytes / lookups)+" bytes, "
+        +"in place: "+String.format("%.1f", (double)inPlaceNanos / lookups / 1000.0)+"us, "+(inPlaceBytes / lookups)+" bytes per lookup");
+    }
+  }
+
+  @Test public void syncOverlappingSources(){
+    int sourceCount = 20, itemCount = 50000;
+
+    // every source shares half its items with the next source
+    List<Item> items = new ArrayList<>();
+    for(int i=0; i<(sourceCount+1) * itemCount / 2; i++)
+      items.add(new Item(i));
+
+    List<Collection<Item>> sources = new ArrayList<>();
+    for(int s=0; s<sourceCount; s++){
+      Collection<Item> source = new Collection<>();
+      source.addAll(items.subList(s * itemCount / 2, s * itemCount / 2 + itemCount));
+      sources.add(source);
+    }
+
+    Collection<Item> target = new Collection<>();
+    long t = System.nanoTime();
+    for(Collection<Item> source : sources)
+      target.sync(source);
+    long syncNanos = System.nanoTime()-t;
+    assertEquals(target.size(), items.size());
+
+    // removing the items of one source only removes the ones that aren't in its neighbours
+    t = System.nanoTime();
+    sources.get(5).clear();
+    long clearNanos = System.nanoTime()-t;
+    assertEquals(target.size(), items.size());
+
+    t = System.nanoTime();
+    sources.get(4).clear();
+    sources.get(6).clear();
+    long clear2Nanos = System.nanoTime()-t;
+    // only the items that were exclusively in those three sources are gone
+    assertEquals(target.size(), items.size() - itemCount);
+
+    System.out.println("Collection syncing "+sourceCount+" overlapping sources of "+itemCount+" items; "
+      +"merge: "+(syncNanos / 1000000)+"ms, clearing a source: "+(clearNanos / 1000000)+"ms, "
+      +"clearing both its neighbours: "+(clear2Nanos / 1000000)+"ms");
+  }
+}
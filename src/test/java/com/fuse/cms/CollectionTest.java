@@ -83,6 +83,82 @@ public class CollectionTest {
     assertEquals(target.size(), 2);
   }
 
+  @Test public void sync_overlappingSources(){
+    Collection<TmpKlass> source1 = new Collection<>();
+    Collection<TmpKlass> source2 = new Collection<>();
+    Collection<TmpKlass> target = new Collection<>();
+    TmpKlass shared = new TmpKlass("shared");
+    source1.add(shared);
+    source2.add(shared);
+
+    target.sync(source1);
+    target.sync(source2);
+    assertEquals(target.size(), 1);
+
+    // items that are added to multiple sources are only in the target once
+    TmpKlass a = new TmpKlass("a");
+    source1.add(a);
+    source2.add(a);
+    source2.add(a);
+    assertEquals(target.size(), 2);
+
+    // and stay there as long as any source holds them
+    source1.remove(shared);
+    assertEquals(target.indexOf(shared), 0);
+    source2.remove(shared);
+    assertEquals(target.indexOf(shared), -1);
+
+    source2.removeAll(java.util.Arrays.asList(a));
+    assertEquals(target.size(), 1);
+    source1.clear();
+    assertEquals(target.size(), 0);
+
+    // stopped sources don't keep items in the target
+    source1.add(a);
+    source2.add(a);
+    target.stopSync(source2);
+    source1.remove(a);
+    assertEquals(target.size(), 0);
+  }
+
+  @Test public void sync_equalItems(){
+    Collection<String> source = new Collection<>();
+    String abc = new String("abc");
+    source.add(abc);
+    source.add("def");
+    Collection<String> target = source.filtered((String s) -> true);
+
+    // synced collections still compare items using equals
+    assertEquals(target.getIdentityIndex(), false);
+    assertEquals(target.contains(new String("abc")), true);
+
+    // and remove the item that was removed from the source, not the given (equal) item
+    List<String> removed = new ArrayList<>();
+    source.removeEvent().addListener((String s) -> removed.add(s));
+    source.remove(new String("abc"));
+    assertEquals(removed.get(0) == abc, true);
+    assertEquals(target.size(), 1);
+    assertEquals(target.get(0), "def");
+  }
+
+  @Test public void sync_overlappingSources_equalItems(){
+    Collection<String> source1 = new Collection<>();
+    Collection<String> source2 = new Collection<>();
+    Collection<String> target = new Collection<>();
+    String abc = new String("abc");
+    source1.add(abc);
+    source2.add(abc);
+    target.sync(source1);
+    target.sync(source2);
+    assertEquals(target.size(), 1);
+
+    // removing an equal (but different) item releases the stored item
+    source1.remove(new String("abc"));
+    assertEquals(target.size(), 1);
+    source2.removeAll(java.util.Arrays.asList(new String("abc")));
+    assertEquals(target.size(), 0);
+  }
+
   @Test public void sync_false(){
     Collection<TmpKlass> source = new Collection<TmpKlass>();
     Collection<TmpKlass> target = new Collection<TmpKlass>();
@@ -284,4 +360,406 @@ public class CollectionTest {
     assertEquals(col.addEvent.size(), 0);
     assertEquals(col.removeEvent.size(), 0);
   }
+
+  @Test public void bulkOperations_with_extensions(){
+    Collection<TmpKlass> source = new Collection<>();
+    Collection<TmpKlass> synced = new Collection<>();
+    synced.sync(source);
+    Collection<TmpKlass> filtered = source.filtered((TmpKlass item) -> !item.attr.startsWith("-"));
+    Collection<TmpKlass2> transformed = source.transform((TmpKlass item) -> new TmpKlass2("="+item.attr));
+
+    List<Integer> batchSizes = new ArrayList<>();
+    synced.addBatchEvent().addListener((List<TmpKlass> items) -> batchSizes.add(items.size()));
+    synced.removeBatchEvent().addListener((List<TmpKlass> items) -> batchSizes.add(-items.size()));
+
+    List<TmpKlass> items = new ArrayList<>();
+    for(String attr : new String[]{ "a", "-b", "c", "-d" })
+      items.add(new TmpKlass(attr));
+    source.addAll(items);
+
+    assertEquals(synced.size(), 4);
+    assertEquals(filtered.size(), 2);
+    assertEquals(filtered.get(1).attr, "c");
+    assertEquals(transformed.size(), 4);
+    assertEquals(transformed.get(3).name, "=-d");
+
+    source.removeAll(items.subList(0, 2));
+    assertEquals(synced.size(), 2);
+    assertEquals(filtered.size(), 1);
+    assertEquals(filtered.get(0).attr, "c");
+    assertEquals(transformed.size(), 2);
+    assertEquals(transformed.get(0).name, "=c");
+
+    // the target received a single batch for each bulk operation
+    assertEquals(batchSizes.toString(), "[4, -2]");
+
+    // single add is still synced
+    source.add(new TmpKlass("e"));
+    assertEquals(synced.size(), 3);
+    assertEquals(filtered.size(), 2);
+    assertEquals(transformed.get(2).name, "=e");
+  }
+
+  @Test public void setLimit_with_addAll(){
+    Collection<TmpKlass> col = new Collection<>();
+    col.setLimit(3);
+    col.add(new TmpKlass("1"));
+    col.addAll(java.util.Arrays.asList(new TmpKlass("2"), new TmpKlass("3"), new TmpKlass("4")));
+    assertEquals(col.size(), 3);
+    assertEquals(col.get(2).attr, "3");
+
+    col.setLimitFifo(3);
+    col.addAll(java.util.Arrays.asList(new TmpKlass("5"), new TmpKlass("6"), new TmpKlass("7"), new TmpKlass("8")));
+    assertEquals(col.size(), 3);
+    assertEquals(col.get(0).attr, "6");
+    assertEquals(col.get(2).attr, "8");
+  }
+
+  @Test public void setLimitFifo_ring(){
+    Collection<TmpKlass> col = new Collection<>();
+    col.setLimitFifo(3);
+    List<String> events = new ArrayList<>();
+    col.addEvent().addListener((TmpKlass k) -> events.add("+"+k.attr));
+    col.removeEvent().addListener((TmpKlass k) -> events.add("-"+k.attr));
+
+    for(int i=1; i<=5; i++)
+      col.add(new TmpKlass(Integer.toString(i)));
+
+    assertEquals(String.join(",", events), "+1,+2,+3,-1,+4,-2,+5");
+    assertEquals(col.size(), 3);
+    assertEquals(col.get(0).attr, "3");
+    assertEquals(col.get(1).attr, "4");
+    assertEquals(col.get(2).attr, "5");
+
+    // iterating and other ArrayList operations see the actual order
+    List<String> attrs = new ArrayList<>();
+    for(TmpKlass k : col)
+      attrs.add(k.attr);
+    assertEquals(String.join(",", attrs), "3,4,5");
+
+    col.add(new TmpKlass("6"));
+    TmpKlass k7 = new TmpKlass("7");
+    col.add(k7);
+    assertEquals(col.indexOf(k7), 2);
+    assertEquals(col.toArray()[0], col.get(0));
+    assertEquals(col.get(0).attr, "5");
+
+    col.add(1, new TmpKlass("x"));
+    assertEquals(col.size(), 3);
+    assertEquals(col.get(0).attr, "6");
+    assertEquals(col.get(1).attr, "x");
+    assertEquals(col.get(2).attr, "7");
+
+    try {
+      col.get(3);
+      assertEquals("exception", "no exception");
+    } catch(IndexOutOfBoundsException exc){
+    }
+  }
+
+  @Test public void clear_with_extensions(){
+    Collection<TmpKlass> source = new Collection<>();
+    Collection<TmpKlass> other = new Collection<>();
+    Collection<TmpKlass> synced = new Collection<>();
+    synced.sync(source);
+    synced.sync(other);
+    Collection<TmpKlass2> transformed = source.transform((TmpKlass item) -> new TmpKlass2(item.attr));
+
+    source.add(new TmpKlass("a"));
+    source.add(new TmpKlass("b"));
+    other.add(new TmpKlass("c"));
+    assertEquals(synced.size(), 3);
+    assertEquals(transformed.size(), 2);
+
+    source.clear();
+    assertEquals(synced.size(), 1);
+    assertEquals(synced.get(0).attr, "c");
+    assertEquals(transformed.size(), 0);
+
+    source.add(new TmpKlass("d"));
+    assertEquals(transformed.size(), 1);
+    source.remove(0);
+    assertEquals(transformed.size(), 0);
+  }
+
+  @Test public void liveFiltered(){
+    Collection<TmpKlass> col = new Collection<>();
+    TmpKlass a = new TmpKlass("a");
+    TmpKlass b = new TmpKlass("b");
+    col.add(a);
+    col.add(b);
+    col.add(a);
+
+    Collection<TmpKlass> view = col.liveFiltered((TmpKlass k) -> k.attr.startsWith("a"), this);
+    assertEquals(view.size(), 2);
+
+    // changed items are re-tested when retransformed
+    a.attr = "x";
+    assertEquals(view.size(), 2);
+    col.retransform(a);
+    assertEquals(view.size(), 0);
+    b.attr = "ab";
+    col.retransform(b);
+    assertEquals(view.size(), 1);
+    assertEquals(view.get(0), b);
+
+    col.remove(b);
+    assertEquals(view.size(), 0);
+    col.add(new TmpKlass("ac"));
+    assertEquals(view.size(), 1);
+
+    // stopped views don't change anymore
+    col.stopTransforms(this);
+    a.attr = "a";
+    col.retransform(a);
+    col.clear();
+    assertEquals(view.size(), 1);
+
+    // the view still compares items using equals
+    assertEquals(view.getIdentityIndex(), false);
+  }
+
+  @Test public void parallel(){
+    Collection<TmpKlass> col = new Collection<>();
+    for(int i=0; i<1000; i++)
+      col.add(new TmpKlass(Integer.toString(i)));
+
+    java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+    java.util.concurrent.atomic.AtomicInteger counter = new java.util.concurrent.atomic.AtomicInteger();
+
+    // modifications are queued until the pass is done
+    col.parallelEach((TmpKlass k) -> {
+      counter.incrementAndGet();
+      if(k.attr.endsWith("0"))
+        col.add(new TmpKlass("new"));
+      assertEquals(col.size(), 1000);
+    }, pool);
+
+    assertEquals(counter.get(), 1000);
+    assertEquals(col.size(), 1100);
+
+    List<Integer> lengths = col.parallelMap((TmpKlass k) -> k.attr.length(), pool);
+    assertEquals(lengths.size(), 1100);
+    assertEquals(lengths.get(999), (Integer)3);
+    assertEquals(lengths.get(1000), (Integer)3);
+    assertEquals(lengths.get(9), (Integer)1);
+
+    List<TmpKlass> filtered = col.parallelFilter((TmpKlass k) -> k.attr.startsWith("99"), pool);
+    assertEquals(filtered.size(), 11);
+    assertEquals(filtered.get(0).attr, "99");
+    assertEquals(filtered.get(10).attr, "999");
+
+    // the result isn't affected by (queued) modifications made by the test
+    filtered = col.parallelFilter((TmpKlass k) -> {
+      if(k.attr.startsWith("1"))
+        col.remove(k);
+      return k.attr.startsWith("99");
+    }, pool);
+    assertEquals(col.size(), 1100-111);
+    assertEquals(filtered.size(), 11);
+    assertEquals(filtered.get(0).attr, "99");
+    assertEquals(filtered.get(10).attr, "999");
+
+    pool.shutdown();
+  }
+
+  @Test public void stream(){
+    Collection<TmpKlass> col = new Collection<>();
+    for(int i=0; i<100; i++)
+      col.add(new TmpKlass(Integer.toString(i)));
+
+    // modifications by the stream's operations are queued until the stream is done
+    long count = col.stream()
+      .filter((TmpKlass k) -> k.attr.length() == 1)
+      .peek((TmpKlass k) -> col.add(new TmpKlass("new"+k.attr)))
+      .count();
+    assertEquals(count, 10L);
+    assertEquals(col.size(), 110);
+    assertEquals(col.get(100).attr, "new0");
+
+    // short-circuiting operations don't leave the collection locked
+    assertEquals(col.stream().anyMatch((TmpKlass k) -> k.attr.equals("5")), true);
+    assertEquals(col.isLocked(), false);
+
+    long total = col.parallelStream()
+      .mapToLong((TmpKlass k) -> k.attr.length())
+      .sum();
+    assertEquals(total, 10 + 180 + 40L);
+
+    col.parallelStream().forEach((TmpKlass k) -> {
+      if(k.attr.startsWith("new"))
+        col.remove(k);
+    });
+    assertEquals(col.size(), 100);
+    assertEquals(col.isLocked(), false);
+  }
+
+  @Test public void stream_modifications() throws Exception {
+    Collection<Integer> col = new Collection<>();
+    for(int i=0; i<20000; i++)
+      col.add(i);
+
+    // queued modifications processed between splits don't make the remaining splits skip items
+    col.parallelStream().forEach(col::remove);
+    assertEquals(col.size(), 0);
+    assertEquals(col.isLocked(), false);
+
+    for(int i=0; i<20000; i++)
+      col.add(i);
+    // with a single thread every split is traversed after the previous one finished
+    java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(1);
+    try {
+      pool.submit(() -> col.parallelStream().forEach(col::remove)).get();
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(col.size(), 0);
+
+    // short-circuiting operations process queued modifications between items, without skipping any
+    for(int i=0; i<10; i++)
+      col.add(i);
+    List<Integer> visited = new ArrayList<>();
+    Integer found = col.stream()
+      .filter((Integer i) -> {
+        visited.add(i);
+        col.remove(i);
+        return false;
+      })
+      .findFirst().orElse(null);
+    assertEquals(found, null);
+    assertEquals(visited.size(), 10);
+    assertEquals(visited.get(9), (Integer)9);
+    assertEquals(col.size(), 0);
+
+    // items added during the traversal aren't visited
+    for(int i=0; i<10; i++)
+      col.add(i);
+    visited.clear();
+    assertEquals(col.stream().anyMatch((Integer i) -> {
+      visited.add(i);
+      col.add(i+10);
+      return i == 100;
+    }), false);
+    assertEquals(visited.size(), 10);
+    assertEquals(col.size(), 20);
+    assertEquals(col.isLocked(), false);
+  }
+
+  @Test public void transform_retransform(){
+    Collection<TmpKlass> col1 = new Collection<>();
+    TmpKlass a = new TmpKlass("a");
+    TmpKlass b = new TmpKlass("b");
+    col1.add(a);
+    col1.add(b);
+    col1.add(a);
+
+    Collection<TmpKlass2> col2 = col1.transform((TmpKlass item) -> new TmpKlass2("-"+item.attr));
+    assertEquals(col2.size(), 3);
+
+    a.attr = "A";
+    col1.retransform(a);
+    assertEquals(col2.size(), 3);
+    assertEquals(col2.get(0).name, "-A");
+    assertEquals(col2.get(1).name, "-b");
+    assertEquals(col2.get(2).name, "-A");
+
+    // removes the item produced by the first occurrence
+    TmpKlass2 second = col2.get(2);
+    col1.remove(a);
+    assertEquals(col2.size(), 2);
+    assertEquals(col2.get(0).name, "-b");
+    assertEquals(col2.get(1), second);
+
+    col1.remove(a);
+    assertEquals(col2.size(), 1);
+    col1.remove(a);
+    assertEquals(col2.size(), 1);
+
+    // transformed collections still compare items using equals
+    assertEquals(col2.getIdentityIndex(), false);
+
+    // stopped transformers aren't invoked anymore
+    List<String> calls = new ArrayList<>();
+    Object owner = new Object();
+    Collection<String> col3 = col1.transform((TmpKlass item) -> {
+      calls.add(item.attr);
+      return item.attr;
+    }, owner);
+    assertEquals(calls.size(), 1);
+    col1.stopTransforms(owner);
+    b.attr = "B";
+    col1.retransform(b);
+    assertEquals(calls.size(), 1);
+    assertEquals(col3.get(0), "b");
+
+    // a retransformed item rejected by the target replaces the outdated item by nothing
+    Collection<String> col4 = col1.transform((TmpKlass item) -> item.attr);
+    col4.accept((String item) -> !item.equals("C"));
+    assertEquals(col4.size(), 1);
+    b.attr = "C";
+    col1.retransform(b);
+    assertEquals(col4.size(), 0);
+    // and comes back when it passes again
+    b.attr = "D";
+    col1.retransform(b);
+    assertEquals(col4.size(), 1);
+    assertEquals(col4.get(0), "D");
+    col1.remove(b);
+    assertEquals(col4.size(), 0);
+  }
+
+  @Test public void sorted(){
+    Collection<TmpKlass> col = new Collection<>();
+    TmpKlass b = new TmpKlass("b");
+    col.add(b);
+    col.add(new TmpKlass("c"));
+    col.add(new TmpKlass("a"));
+
+    Collection<TmpKlass> sorted = col.sorted((TmpKlass x, TmpKlass y) -> x.attr.compareTo(y.attr));
+    assertEquals(sorted.get(0).attr, "a");
+    assertEquals(sorted.get(2).attr, "c");
+
+    // plain items aren't watched; retransform moves a changed item
+    b.attr = "d";
+    col.retransform(b);
+    assertEquals(sorted.get(1).attr, "c");
+    assertEquals(sorted.get(2), b);
+
+    // batch additions are merged into position; after the items they're equal to
+    TmpKlass c2 = new TmpKlass("c");
+    List<TmpKlass> batch = new ArrayList<>();
+    batch.add(new TmpKlass("e"));
+    batch.add(c2);
+    batch.add(new TmpKlass("0"));
+    batch.add(new TmpKlass("b"));
+    col.addAll(batch);
+    assertEquals(sorted.size(), 7);
+    List<String> attrs = new ArrayList<>();
+    sorted.each((TmpKlass item) -> attrs.add(item.attr));
+    assertEquals(String.join(",", attrs), "0,a,b,c,c,d,e");
+    assertEquals(sorted.get(4), c2);
+    assertEquals(sorted.indexOf(b), 5);
+  }
+
+  @Test public void groupBy(){
+    Collection<TmpKlass> col = new Collection<>();
+    TmpKlass a = new TmpKlass("a1");
+    col.addAll(java.util.Arrays.asList(a, new TmpKlass("b1"), new TmpKlass("a2")));
+
+    java.util.Map<Character, Collection<TmpKlass>> groups = col.groupBy((TmpKlass item) -> item.attr.charAt(0));
+    assertEquals(groups.size(), 2);
+    assertEquals(groups.get('a').size(), 2);
+    assertEquals(groups.get('b').size(), 1);
+
+    a.attr = "c1";
+    col.retransform(a);
+    assertEquals(groups.get('a').size(), 1);
+    assertEquals(groups.get('c').get(0), a);
+
+    col.remove(a);
+    assertEquals(groups.get('c').size(), 0);
+
+    // groups still compare items using equals
+    assertEquals(groups.get('a').getIdentityIndex(), false);
+  }
 }
@@ -0,0 +1,182 @@
+package com.fuse.cms;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentModelTest {
+  @Test public void basics(){
+    ConcurrentModel m = new ConcurrentModel();
+    List<String> changes = new ArrayList<>();
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      changes.add(args.attr+":"+args.previousValue+"->"+args.value);
+    });
+
+    m.set("name", "John");
+    m.set("name", "John");
+    m.set("age", 25);
+    m.set("pos", new float[]{1.0f, 2.0f});
+    m.set("name", (String)null);
+
+    assertEquals(changes.toString(), "[name:null->John, age:null->25, pos:null->1.0,2.0, name:John->null]");
+    assertEquals(m.size(), 3);
+    assertTrue(m.has("name"));
+    assertEquals(m.get("name"), null);
+    assertEquals(m.get("name", "default"), "default");
+    assertEquals(m.getInt("age"), 25);
+    assertEquals(m.getVecX("pos", 2)[1], 2.0f, 0.0f);
+  }
+
+  @Test public void concurrentWritesAndIteration() throws Exception {
+    ConcurrentModel m = new ConcurrentModel();
+    AtomicInteger changeCount = new AtomicInteger(0);
+    AtomicInteger concurrentDispatches = new AtomicInteger(0);
+    AtomicBoolean overlap = new AtomicBoolean(false);
+
+    m.changeEvent().addListener((ModelBase model) -> {
+      if(concurrentDispatches.incrementAndGet() > 1)
+        overlap.set(true);
+      changeCount.incrementAndGet();
+      concurrentDispatches.decrementAndGet();
+    });
+
+    int writers = 4, count = 2000;
+    AtomicBoolean done = new AtomicBoolean(false);
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+
+    for(int w=0; w<writers; w++){
+      final int writer = w;
+      threads.add(new Thread(() -> {
+        try {
+          for(int i=0; i<count; i++){
+            m.set("w"+writer+"_"+i, i);
+            // every writer writes the same (unchanging) value to the shared attribute
+            m.set("shared", "value");
+          }
+        } catch(Throwable exc){
+          errors.add(exc);
+        }
+      }));
+    }
+
+    for(int r=0; r<2; r++){
+      threads.add(new Thread(() -> {
+        try {
+          while(!done.get())
+            m.each((key, value) -> { assertNotNull(key); });
+        } catch(Throwable exc){
+          errors.add(exc);
+        }
+      }));
+    }
+
+    for(Thread t : threads)
+      t.start();
+
+    for(int w=0; w<writers; w++)
+      threads.get(w).join();
+
+    done.set(true);
+
+    for(Thread t : threads)
+      t.join();
+
+    assertEquals(errors.toString(), "[]");
+    assertEquals(m.size(), writers * count + 1);
+    assertEquals(m.getInt("w3_1999"), 1999);
+    // the shared attribute only changed once
+    assertEquals(changeCount.get(), writers * count + 1);
+    assertFalse(overlap.get());
+  }
+
+  @Test public void concurrentWritesOfTheSameAttribute() throws Exception {
+    ConcurrentModel m = new ConcurrentModel();
+    Model follower = new Model();
+    follower.follow(m);
+    String[] lastValue = new String[]{ null };
+    AtomicBoolean outOfOrder = new AtomicBoolean(false);
+
+    // every change should be dispatched right after the change it replaced
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      if(args.previousValue == null ? lastValue[0] != null : !args.previousValue.equals(lastValue[0]))
+        outOfOrder.set(true);
+      lastValue[0] = args.value;
+      Thread.yield();
+    });
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+
+    for(int w=0; w<4; w++){
+      final int writer = w;
+      threads.add(new Thread(() -> {
+        try {
+          for(int i=0; i<5000; i++)
+            m.set("value", writer+"_"+i);
+        } catch(Throwable exc){
+          errors.add(exc);
+        }
+      }));
+    }
+
+    for(Thread t : threads)
+      t.start();
+    for(Thread t : threads)
+      t.join();
+
+    assertEquals(errors.toString(), "[]");
+    assertFalse(outOfOrder.get());
+    // the last dispatched change is the last write
+    assertEquals(follower.get("value"), m.get("value"));
+  }
+
+  @Test public void batchAndDeferredDispatchAreNotSupported(){
+    ConcurrentModel m = new ConcurrentModel();
+    List<String> changes = new ArrayList<>();
+    m.changeEvent().addListener((ModelBase model) -> changes.add(model.get("name")));
+
+    m.batch((ModelBase model) -> {
+      model.set("name", "John");
+      assertEquals(changes.size(), 1);
+    });
+
+    m.setDispatchOnUpdate(false);
+
+    try {
+      m.setDispatchOnUpdate(true);
+      fail();
+    } catch(UnsupportedOperationException exc){
+    }
+
+    assertEquals(m.getDispatchOnUpdate(), false);
+  }
+
+  @Test public void setDispatchExecutor() throws Exception {
+    ConcurrentModel m = new ConcurrentModel();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+
+    m.changeEvent().addListener((ModelBase model) -> {
+      threadNames.add(Thread.currentThread().getName());
+    });
+
+    assertEquals(m.getDispatchExecutor(), null);
+    m.setDispatchExecutor(executor);
+    assertEquals(m.getDispatchExecutor(), executor);
+
+    m.set("name", "John");
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(threadNames.size(), 1);
+    assertNotEquals(threadNames.get(0), Thread.currentThread().getName());
+  }
+}
@@ -0,0 +1,193 @@
+package com.fuse.cms;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Not part of the regular test run (surefire only picks up *Test classes),
+ * run with: mvn test -P benchmark
+ */
+public class ModelBaseBenchmark {
+
+  private static final int CALLS = 5000000;
+
+  /** Prevents the JIT from eliminating the benchmarked calls */
+  private float sink = 0.0f;
+
+  private void report(String name, long nanos){
+    System.out.println("ModelBase "+name+": "+String.format("%.1f", (double)nanos / CALLS)+"ns per call");
+  }
+
+  @Test public void typedGetters(){
+    ModelBase m = new ModelBase();
+    m.set("price", "9.99");
+    m.set("age", "13");
+    m.set("visible", "true");
+    m.set("pos", "200,0,10");
+
+    for(int round=0; round<2; round++){
+      long t;
+
+      // "before"; re-parse the string value on every call, like the uncached getters did
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += Float.parseFloat(m.get("price"));
+      report("parsing getFloat", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += m.getFloat("price");
+      report("cached getFloat", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += Integer.parseInt(m.get("age"));
+      report("parsing getInt", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += m.getInt("age");
+      report("cached getInt", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += Boolean.parseBoolean(m.get("visible")) ? 1 : 0;
+      report("parsing getBool", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += m.getBool("visible") ? 1 : 0;
+      report("cached getBool", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++){
+        String[] parts = m.get("pos").split(",");
+        float[] vec = new float[3];
+        for(int c=0; c<3; c++)
+          vec[c] = Float.parseFloat(parts[c]);
+        sink += vec[2];
+      }
+      report("parsing getVec3", System.nanoTime()-t);
+
+      t = System.nanoTime();
+      for(int i=0; i<CALLS; i++)
+        sink += m.getVec3("pos")[2];
+      report("cached getVec3", System.nanoTime()-t);
+    }
+
+    assertEquals(sink > 0.0f, true);
+  }
+
+  @Test public void attributeTransformerDispatch(){
+    int sets = 100000;
+
+    for(int transformerCount : new int[]{ 1, 10, 100, 500 }){
+      // "before"; every transformer listens to the model-wide event and compares the attribute name
+      Model wide = new Model();
+      for(int i=0; i<transformerCount; i++){
+        String attr = "attr"+i;
+        wide.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+          if(args.attr.equals(attr))
+            sink += 1.0f;
+        });
+      }
+
+      Model routed = new Model();
+      for(int i=0; i<transformerCount; i++)
+        routed.transformAttribute("attr"+i, (String value) -> { sink += 1.0f; });
+
+      long t = System.nanoTime();
+      for(int i=0; i<sets; i++)
+        wide.set("attr0", (i & 1) == 0 ? "a" : "b");
+      long wideNanos = System.nanoTime()-t;
+
+      t = System.nanoTime();
+      for(int i=0; i<sets; i++)
+        routed.set("attr0", (i & 1) == 0 ? "a" : "b");
+      long routedNanos = System.nanoTime()-t;
+
+      System.out.println("ModelBase set with "+transformerCount+" attribute transformers; "
+        +"model-wide listeners: "+String.format("%.1f", (double)wideNanos / sets)+"ns, "
+        +"per-attribute listeners: "+String.format("%.1f", (double)routedNanos / sets)+"ns per set");
+    }
+
+    assertEquals(sink > 0.0f, true);
+  }
+
+  private long usedMemory(){
+    Runtime rt = Runtime.getRuntime();
+    for(int i=0; i<3; i++)
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private long bytesPerModel(int count, boolean lazy){
+    ModelBase[] models = new ModelBase[count];
+    long before = usedMemory();
+
+    for(int i=0; i<count; i++)
+      models[i] = new ModelBase(lazy);
+
+    long bytes = (usedMemory() - before) / count;
+    assertEquals(models[count-1].size(), 0);
+    return bytes;
+  }
+
+  private long bytesPerCollection(int count, boolean lazy){
+    CollectionBase<?>[] cols = new CollectionBase<?>[count];
+    long before = usedMemory();
+
+    for(int i=0; i<count; i++)
+      cols[i] = new CollectionBase<String>(lazy);
+
+    long bytes = (usedMemory() - before) / count;
+    assertEquals(cols[count-1].size(), 0);
+    return bytes;
+  }
+
+  @Test public void lazyEventMemory(){
+    int count = 1000000;
+    long eagerModel = bytesPerModel(count, false);
+    long lazyModel = bytesPerModel(count, true);
+    System.out.println("ModelBase heap usage; default: "+eagerModel+" bytes, lazy events: "+lazyModel+" bytes per instance");
+
+    long eagerCol = bytesPerCollection(count, false);
+    long lazyCol = bytesPerCollection(count, true);
+    System.out.println("CollectionBase heap usage; default: "+eagerCol+" bytes, lazy events: "+lazyCol+" bytes per instance");
+  }
+
+  @Test public void snapshotCost(){
+    int snapshots = 1000;
+
+    for(int size : new int[]{ 100, 10000, 100000 }){
+      Model m = new Model();
+      for(int i=0; i<size; i++)
+        m.set("attr"+i, i);
+
+      m.snapshot();
+
+      // "before"; copy all attributes into a new model
+      long t = System.nanoTime();
+      for(int i=0; i<snapshots; i++){
+        m.set("attr"+(i % 10), i);
+        ModelBase copy = new ModelBase();
+        copy.copy(m);
+        sink += copy.size();
+      }
+      long copyNanos = System.nanoTime()-t;
+
+      t = System.nanoTime();
+      for(int i=0; i<snapshots; i++){
+        m.set("attr"+(i % 10), i);
+        sink += m.snapshot().size();
+      }
+      long snapshotNanos = System.nanoTime()-t;
+
+      System.out.println("Model with "+size+" attributes, one change per snapshot; "
+        +"copy: "+String.format("%.1f", (double)copyNanos / snapshots / 1000.0)+"us, "
+        +"snapshot: "+String.format("%.1f", (double)snapshotNanos / snapshots / 1000.0)+"us per snapshot");
+    }
+
+    assertEquals(sink > 0.0f, true);
+  }
+}
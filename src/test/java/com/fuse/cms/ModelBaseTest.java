@@ -1,10 +1,14 @@
 package com.fuse.cms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
 import com.fuse.cms.ModelBase;
 import com.fuse.utils.Event;
 
@@ -57,6 +61,18 @@ public class ModelBaseTest {
       assertEquals(m.changeEvent.size(), 0);
   }
 
+  @Test public void lazyEvents(){
+    ModelBase m = new ModelBase(true);
+    m.set("a", "b");
+    assertEquals(m.changeEvent == null, true);
+    // the accessor creates the event
+    assertEquals(m.changeEvent() == m.changeEvent, true);
+    assertEquals(m.attributeChangeEvent == null, true);
+
+    assertEquals(new ModelBase().changeEvent == null, false);
+    assertEquals(new Model(true).changeEvent == null, true);
+  }
+
   @Test public void set_and_get(){
     strings = new ArrayList<String>();
     ModelBase m = new ModelBase();
@@ -217,4 +233,399 @@ public class ModelBaseTest {
     assertEquals((float)logger.getHistory().get(0), 4.0f, 0.0000f);
     assertEquals((float)logger.getHistory().get(1), Float.NaN, 0.000001);
   }
+
+  @Test public void typedValueCache(){
+    ModelBase m = new ModelBase();
+    m.set("no", "12");
+    assertEquals(m.getInt("no"), 12);
+    assertEquals(m.getFloat("no"), 12.0f, 0.000001f);
+    assertEquals(m.getLong("no"), 12l);
+    // cached values are invalidated by set
+    m.set("no", "13.5");
+    assertEquals(m.getInt("no", -1), -1);
+    assertEquals(m.getFloat("no"), 13.5f, 0.000001f);
+    assertEquals(m.get("no"), "13.5");
+    // invalid cached values still honor the given default value
+    assertEquals(m.getInt("no", -2), -2);
+
+    m.set("pos", "1,2");
+    assertEquals(m.getVec3("pos")[1], 2.0f, 0.000001f);
+    assertEquals(m.getVec3("pos", new float[]{7.0f,8.0f,9.0f})[2], 9.0f, 0.000001f);
+    // returned vectors are copies
+    m.getVec3("pos")[0] = 100.0f;
+    assertEquals(m.getVec3("pos")[0], 1.0f, 0.000001f);
+    m.set("pos", "3,4,5");
+    assertEquals(m.getVec3("pos")[2], 5.0f, 0.000001f);
+
+    // iteration gives the plain string values
+    strings = new ArrayList<String>();
+    m.each((String key, String value) -> strings.add(key+"="+value));
+    assertEquals(strings.contains("no=13.5"), true);
+    assertEquals(strings.contains("pos=3,4,5"), true);
+  }
+
+  @Test public void typedValueCache_concurrentReads() throws InterruptedException {
+    List<ModelBase> models = new ArrayList<>();
+    for(int i=0; i<2000; i++){
+      ModelBase m = new ModelBase();
+      m.set("no", Integer.toString(i));
+      m.set("pos", i+","+i);
+      models.add(m);
+    }
+
+    // all threads read the same (unparsed) values at the same time
+    int[] failures = new int[]{ 0 };
+    List<Thread> threads = new ArrayList<>();
+    for(int t=0; t<4; t++){
+      Thread thread = new Thread(() -> {
+        for(int i=0; i<models.size(); i++){
+          ModelBase m = models.get(i);
+          if(m.getInt("no", -1) != i || m.getLong("no", -1) != i || m.getFloat("no", -1.0f) != i || m.getVec3("pos")[1] != i)
+            synchronized(failures){ failures[0]++; }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    for(Thread thread : threads)
+      thread.join();
+
+    assertEquals(failures[0], 0);
+  }
+
+  @Test public void useShape(){
+    ModelShape root = new ModelShape();
+    ModelBase m1 = new ModelBase();
+    m1.set("name", "John");
+    assertEquals(m1.isCompact(), false);
+    m1.useShape(root);
+    assertEquals(m1.isCompact(), true);
+    assertEquals(m1.get("name"), "John");
+    assertEquals(m1.has("age"), false);
+
+    m1.attributeChangeEvent().enableHistory();
+    m1.set("age", 30);
+    assertEquals(m1.attributeChangeEvent().getHistory().size(), 1);
+    assertEquals(m1.getInt("age"), 30);
+    assertEquals(m1.has("age"), true);
+    assertEquals(m1.size(), 2);
+    assertEquals(m1.getAttributeNames().contains("age"), true);
+
+    // models with the same keys share their shape
+    ModelBase m2 = new ModelBase();
+    m2.useShape(root);
+    m2.set("name", "Jane");
+    m2.set("age", 25);
+    assertEquals(m2.get("name"), "Jane");
+    assertEquals(m1.get("name"), "John");
+    assertEquals(m1.getShape() == m2.getShape(), true);
+
+    // the attribute names are a live view of the current shape
+    Set<String> names = m1.getAttributeNames();
+    m1.set("city", "Berlin");
+    assertEquals(String.join(",", names), "name,age,city");
+    assertEquals(names.size(), 3);
+    assertEquals(names.contains("city"), true);
+    assertEquals(m2.getAttributeNames().contains("city"), false);
+
+    strings = new ArrayList<String>();
+    m2.each((String key, String value) -> strings.add(key + "=" + value));
+    assertEquals(joined(","), "name=Jane,age=25");
+
+    // modifications during iteration are queued
+    m2.each((String key, String value) -> m2.set("_"+key, value));
+    assertEquals(m2.size(), 4);
+    assertEquals(m2.get("_age"), "25");
+
+    m2.destroy();
+    assertEquals(m2.size(), 0);
+    assertEquals(m2.get("name"), null);
+  }
+
+  @Test public void batch(){
+    strings = new ArrayList<String>();
+    ModelBase m = new ModelBase();
+    m.set("name", "John");
+    m.set("age", "30");
+    m.changeEvent().enableHistory();
+    m.batchChangeEvent().enableHistory();
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs arg) -> {
+      strings.add(arg.attr+"="+arg.value+"("+arg.previousValue+")");
+    });
+
+    m.batch((ModelBase mm) -> {
+      mm.set("name", "Jane");
+      mm.set("name", "Joan");
+      mm.set("city", "Rome");
+      mm.set("age", "31");
+      mm.set("age", "30"); // back to its original value
+      // changes are applied immediately, events are postponed
+      assertEquals(mm.get("name"), "Joan");
+      assertEquals(mm.isBatching(), true);
+      assertEquals(m.changeEvent().getHistory().size(), 0);
+    });
+
+    assertEquals(m.isBatching(), false);
+    assertEquals(joined(","), "name=Joan(John),city=Rome(null)");
+    assertEquals(m.changeEvent().getHistory().size(), 1);
+    assertEquals(m.batchChangeEvent().getHistory().size(), 1);
+    ModelBase.BatchChangeArgs args = m.batchChangeEvent().getHistory().get(0);
+    assertEquals(args.model, m);
+    assertEquals(args.previousValues.size(), 2);
+    assertEquals(args.previousValues.get("name"), "John");
+    assertEquals(args.previousValues.containsKey("city"), true);
+    assertEquals(args.previousValues.get("city"), null);
+
+    // nested batches
+    m.beginBatch();
+    m.set("name", "A");
+    m.beginBatch();
+    m.set("name", "B");
+    m.commitBatch();
+    assertEquals(m.changeEvent().getHistory().size(), 1);
+    m.commitBatch();
+    assertEquals(m.changeEvent().getHistory().size(), 2);
+    assertEquals(m.batchChangeEvent().getHistory().get(1).previousValues.get("name"), "Joan");
+
+    // batches without effective changes don't trigger
+    m.batch((ModelBase mm) -> mm.set("name", "B"));
+    assertEquals(m.changeEvent().getHistory().size(), 2);
+    assertEquals(m.batchChangeEvent().getHistory().size(), 2);
+    // a throwing batch is still committed
+    try {
+      m.batch((ModelBase mm) -> {
+        mm.set("name", "C");
+        throw new IllegalStateException();
+      });
+    } catch(IllegalStateException e){}
+
+    assertEquals(m.isBatching(), false);
+    assertEquals(m.changeEvent().getHistory().size(), 3);
+    m.set("name", "D");
+    assertEquals(m.changeEvent().getHistory().size(), 4);
+  }
+
+  /** @return bytes allocated per run of func, or -1 if the JVM can't measure thread allocations */
+  private long bytesAllocatedPerRun(Runnable func, int runs){
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(!(bean instanceof com.sun.management.ThreadMXBean))
+      return -1;
+
+    com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean)bean;
+    if(!allocBean.isThreadAllocatedMemorySupported() || !allocBean.isThreadAllocatedMemoryEnabled())
+      return -1;
+
+    long threadId = Thread.currentThread().getId();
+
+    // warm up
+    for(int i=0; i<runs; i++)
+      func.run();
+
+    long before = allocBean.getThreadAllocatedBytes(threadId);
+    for(int i=0; i<runs; i++)
+      func.run();
+    return (allocBean.getThreadAllocatedBytes(threadId) - before) / runs;
+  }
+
+  @Test public void setWithoutAllocations(){
+    ModelBase m = new ModelBase();
+    String[] values = new String[]{"100,0,0", "200,0,0"};
+    int[] counter = new int[]{0};
+    m.set("pos", values[0]);
+
+    long bytes = bytesAllocatedPerRun(() -> {
+      m.set("pos", values[counter[0]++ & 1]);
+    }, 100000);
+
+    assumeTrue(bytes != -1);
+    assertEquals(bytes, 0);
+    assertEquals(m.get("pos") == values[0] || m.get("pos") == values[1], true);
+  }
+
+  @Test public void attributeChangeArgsAreReused(){
+    List<ModelBase.AttributeChangeArgs> argsList = new ArrayList<>();
+    strings = new ArrayList<String>();
+    ModelBase m = new ModelBase();
+    assertEquals(m.getReuseChangeArgs(), false);
+    m.setReuseChangeArgs(true);
+
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      argsList.add(args);
+      strings.add(args.attr+"="+args.value);
+
+      // nested change gets its own args instance and doesn't corrupt the outer one
+      if(args.attr.equals("a"))
+        m.set("b", args.value+"!");
+
+      strings.add(args.attr+"="+args.value);
+    });
+
+    m.set("a", "1");
+    m.set("a", "2");
+    assertEquals(joined(","), "a=1,b=1!,b=1!,a=1,a=2,b=2!,b=2!,a=2");
+    assertEquals(argsList.size(), 4);
+    assertEquals(argsList.get(0) == argsList.get(2), true);
+    assertEquals(argsList.get(0) == argsList.get(1), false);
+  }
+
+  @Test public void attributeChangeArgsAreNotReusedByDefault(){
+    ModelBase m = new ModelBase();
+    m.attributeChangeEvent().enableHistory();
+
+    // the history is recorded without any other listeners
+    m.set("a", "1");
+    m.set("b", "2");
+    assertEquals(m.attributeChangeEvent().getHistory().size(), 2);
+    assertEquals(m.attributeChangeEvent().getHistory().get(0).attr, "a");
+    assertEquals(m.attributeChangeEvent().getHistory().get(0).value, "1");
+    assertEquals(m.attributeChangeEvent().getHistory().get(1).attr, "b");
+
+    // listeners can keep the args
+    List<ModelBase.AttributeChangeArgs> argsList = new ArrayList<>();
+    m.getAttributeChangeEvent("a").addListener((ModelBase.AttributeChangeArgs args) -> argsList.add(args));
+    m.set("a", "3");
+    m.set("a", "4");
+    assertEquals(argsList.get(0).value, "3");
+    assertEquals(argsList.get(1).value, "4");
+  }
+
+  @Test public void queuedModsDuringModQueueProcessing(){
+    ModelBase m = new ModelBase();
+    m.set("a", "1");
+
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      // modifications while iterating inside a listener invoked by the mod queue processing
+      if(args.attr.equals("b"))
+        m.each((String key, String value) -> m.set("c", value));
+    });
+
+    m.each((String key, String value) -> m.set("b", value));
+    assertEquals(m.get("b"), "1");
+    assertEquals(m.get("c") == null, false);
+
+    // the mod queue is reused
+    m.each((String key, String value) -> m.set("d", "2"));
+    assertEquals(m.get("d"), "2");
+  }
+
+  @Test public void queuedModsCoalesce(){
+    ModelBase m = new ModelBase();
+    m.set("a", "1");
+    m.set("b", "1");
+    List<String> changes = new ArrayList<>();
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> changes.add(args.attr+"="+args.value));
+
+    // the last value wins; every attribute is only replayed once
+    m.each((String key, String value) -> {
+      m.set("c", key);
+      m.set("a", "2");
+      m.set("b", "3");
+      m.set("b", "1");
+    });
+
+    assertEquals(String.join(",", changes), "c=b,a=2");
+    assertEquals(m.get("b"), "1");
+
+    // attributes that were already replayed are queued again
+    changes.clear();
+    m.getAttributeChangeEvent("b").addListener((ModelBase.AttributeChangeArgs args) -> {
+      if(args.value.equals("4"))
+        m.each((String key, String value) -> m.set("b", "5"));
+    });
+
+    m.each((String key, String value) -> m.set("b", "4"));
+    assertEquals(String.join(",", changes), "b=4,b=5");
+    assertEquals(m.get("b"), "5");
+  }
+
+  @Test public void setDispatchOnUpdate(){
+    ModelBase m = new ModelBase();
+    m.set("a", "1");
+    List<String> changes = new ArrayList<>();
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> changes.add(args.attr+":"+args.previousValue+">"+args.value));
+    m.changeEvent().addListener((ModelBase model) -> changes.add("change"));
+
+    m.setDispatchOnUpdate(true);
+    for(int i=2; i<=1000; i++)
+      m.set("a", i);
+    assertEquals(changes.size(), 0);
+    assertEquals(m.get("a"), "1000");
+
+    // one event per changed attribute, one change event
+    m.update();
+    assertEquals(String.join(",", changes), "a:1>1000,change");
+    m.update();
+    assertEquals(changes.size(), 2);
+
+    // disabling delivers the pending events
+    m.set("a", "0");
+    m.setDispatchOnUpdate(false);
+    assertEquals(changes.get(2), "a:1000>0");
+    m.set("a", "1");
+    assertEquals(changes.get(5), "a:0>1");
+  }
+
+  @Test public void setVec(){
+    strings = new ArrayList<String>();
+    ModelBase m = new ModelBase();
+    m.changeEvent().enableHistory();
+
+    float[] pos = new float[]{1.0f, 2.5f, -3.0f};
+    m.set("pos", pos);
+    pos[0] = 100.0f; // the model keeps its own copy
+    assertEquals(m.changeEvent().getHistory().size(), 1);
+
+    float[] out = new float[3];
+    assertEquals(m.getVecInto("pos", out), out);
+    assertEquals(out[0], 1.0f, 0.000001f);
+    assertEquals(out[2], -3.0f, 0.000001f);
+    assertEquals(m.getVec3("pos")[1], 2.5f, 0.000001f);
+    // stringified on request
+    assertEquals(m.get("pos"), "1.0,2.5,-3.0");
+
+    // unchanged vectors don't trigger
+    m.set("pos", new float[]{1.0f, 2.5f, -3.0f});
+    assertEquals(m.changeEvent().getHistory().size(), 1);
+
+    // in-place updates
+    m.set("pos", new float[]{4.0f, 5.0f, 6.0f});
+    assertEquals(m.changeEvent().getHistory().size(), 2);
+    assertEquals(m.getVecInto("pos", out)[0], 4.0f, 0.000001f);
+    assertEquals(m.get("pos"), "4.0,5.0,6.0");
+
+    // attribute events carry the stringified values
+    m.attributeChangeEvent().addListener((ModelBase.AttributeChangeArgs args) -> {
+      strings.add(args.value+" <- "+args.previousValue);
+    });
+    m.set("pos", new float[]{7.0f, 8.0f, 9.0f});
+    assertEquals(joined(), "7.0,8.0,9.0 <- 4.0,5.0,6.0");
+
+    // string values can be read as vectors and compared against vectors
+    m.set("pos", "1,2,3");
+    assertEquals(m.getVecInto("pos", new float[4], new float[]{0,0,0,42.0f})[3], 42.0f, 0.000001f);
+    m.set("pos", new float[]{1.0f, 2.0f, 3.0f});
+    assertEquals(m.get("pos"), "1,2,3");
+    assertEquals(m.getVecInto("missing", out)[0], 0.0f, 0.000001f);
+
+    // queued while locked
+    m.each((String key, String value) -> m.set("pos2", new float[]{1.0f}));
+    assertEquals(m.get("pos2"), "1.0");
+  }
+
+  @Test public void getVecIntoWithoutAllocations(){
+    ModelBase m = new ModelBase();
+    float[][] values = new float[][]{ new float[]{1.0f, 2.0f, 3.0f}, new float[]{4.0f, 5.0f, 6.0f} };
+    float[] out = new float[3];
+    int[] counter = new int[]{0};
+    m.set("pos", values[0]);
+
+    long bytes = bytesAllocatedPerRun(() -> {
+      m.set("pos", values[counter[0]++ & 1]);
+      m.getVecInto("pos", out);
+    }, 100000);
+
+    assumeTrue(bytes != -1);
+    assertEquals(bytes, 0);
+  }
 }
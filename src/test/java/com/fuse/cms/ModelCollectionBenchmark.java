@@ -0,0 +1,365 @@
+package com.fuse.cms;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Not part of the regular test run (surefire only picks up *Test classes),
+ * run with: mvn test -P benchmark
+ */
+public class ModelCollectionBenchmark {
+
+  private JSONArray createJson(int count){
+    JSONArray json = new JSONArray();
+
+    for(int i=0; i<count; i++){
+      JSONObject node = new JSONObject();
+      node.put("id", Integer.toString(i));
+      node.put("title", "Title #"+i);
+      node.put("price", Float.toString(i * 0.25f));
+      json.put(node);
+    }
+
+    return json;
+  }
+
+  private long reload(ModelCollection col, JSONArray json){
+    long t = System.nanoTime();
+    col.loadJson(json);
+    return (System.nanoTime() - t) / 1000000;
+  }
+
+  @Test public void reloadWithAndWithoutIndex(){
+    for(int count : new int[]{ 1000, 5000, 20000 }){
+      JSONArray json = createJson(count);
+
+      ModelCollection plain = new ModelCollection();
+      plain.loadJson(json);
+      long plainMs = reload(plain, json);
+
+      ModelCollection indexed = new ModelCollection();
+      indexed.createIndex("id");
+      indexed.loadJson(json);
+      long indexedMs = reload(indexed, json);
+
+      assertEquals(plain.size(), count);
+      assertEquals(indexed.size(), count);
+      System.out.println("ModelCollection reload of "+count+" models; without index: "+plainMs+"ms, with index: "+indexedMs+"ms");
+    }
+
+    int count = 200000;
+    JSONArray json = createJson(count);
+    ModelCollection indexed = new ModelCollection();
+    indexed.createIndex("id");
+    indexed.loadJson(json);
+    long indexedMs = reload(indexed, json);
+    assertEquals(indexed.size(), count);
+    System.out.println("ModelCollection reload of "+count+" models; with index: "+indexedMs+"ms");
+  }
+
+  @Test public void nonUniqueIndex(){
+    for(int count : new int[]{ 80000, 320000 }){
+      ModelCollection col = new ModelCollection();
+      for(int i=0; i<count; i++){
+        Model m = new Model();
+        m.set("parity", i % 2 == 0 ? "even" : "odd");
+        col.add(m);
+      }
+
+      long t = System.nanoTime();
+      ModelIndex index = col.createIndex("parity");
+      long createMs = (System.nanoTime() - t) / 1000000;
+
+      t = System.nanoTime();
+      for(int i=0; i<count; i+=2)
+        col.get(i).set("parity", "odd");
+      long updateMs = (System.nanoTime() - t) / 1000000;
+
+      t = System.nanoTime();
+      col.clear();
+      long clearMs = (System.nanoTime() - t) / 1000000;
+
+      assertEquals(index.findAll("odd").size(), 0);
+      System.out.println("ModelIndex on an attribute with 2 distinct values of "+count+" models; create: "+createMs
+        +"ms, update half: "+updateMs+"ms, clear: "+clearMs+"ms");
+    }
+  }
+
+  private long usedMemory(){
+    Runtime rt = Runtime.getRuntime();
+    for(int i=0; i<3; i++)
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private long bytesPerModel(boolean compact, int count, String[] keys){
+    long before = usedMemory();
+    ModelCollection col = new ModelCollection();
+    col.setCompactStorage(compact);
+
+    for(int i=0; i<count; i++){
+      Model m = col.create();
+      // values are shared strings, so only the storage structure is measured
+      for(String key : keys)
+        m.set(key, key);
+    }
+
+    long bytes = (usedMemory() - before) / count;
+    assertEquals(col.size(), count);
+    assertEquals(col.get(count-1).get(keys[0]), keys[0]);
+    return bytes;
+  }
+
+  @Test public void compactStorageMemory(){
+    String[] keys = new String[12];
+    for(int i=0; i<keys.length; i++)
+      keys[i] = "attribute"+i;
+
+    int count = 200000;
+    long hashBytes = bytesPerModel(false, count, keys);
+    long compactBytes = bytesPerModel(true, count, keys);
+    System.out.println("ModelCollection with "+count+" models of "+keys.length+" attributes; "
+      +"hash storage: "+hashBytes+" bytes per model, compact storage: "+compactBytes+" bytes per model");
+  }
+
+  @Test public void sortedView(){
+    int count = 50000, changes = 1000;
+    Comparator<Model> byPrice = (Model a, Model b) -> Float.compare(a.getFloat("price"), b.getFloat("price"));
+    ModelCollection col = new ModelCollection();
+    col.loadJson(createJson(count));
+    java.util.Random rand = new java.util.Random(1);
+
+    // "before"; copy and re-sort after every change
+    long t = System.nanoTime();
+    List<Model> copy = null;
+    for(int i=0; i<changes; i++){
+      col.get(rand.nextInt(count)).set("price", rand.nextFloat() * 1000.0f);
+      copy = new ArrayList<>(col);
+      Collections.sort(copy, byPrice);
+    }
+    long resortNanos = System.nanoTime()-t;
+
+    ModelCollection sorted = col.sorted(byPrice, new String[]{ "price" });
+    t = System.nanoTime();
+    for(int i=0; i<changes; i++)
+      col.get(rand.nextInt(count)).set("price", rand.nextFloat() * 1000.0f);
+    long liveNanos = System.nanoTime()-t;
+
+    assertEquals(copy.size(), count);
+    for(int i=1; i<count; i++)
+      assertEquals(sorted.get(i-1).getFloat("price") <= sorted.get(i).getFloat("price"), true);
+
+    System.out.println("ModelCollection sorted with "+count+" models; "
+      +"re-sort: "+String.format("%.1f", (double)resortNanos / changes / 1000.0)+"us, "
+      +"live sorted view: "+String.format("%.1f", (double)liveNanos / changes / 1000.0)+"us per change");
+  }
+
+  @Test public void sortedViewBatchAdd(){
+    int count = 400000, batchSize = 200000;
+    Comparator<Model> byPrice = (Model a, Model b) -> Float.compare(a.getFloat("price"), b.getFloat("price"));
+    java.util.Random rand = new java.util.Random(1);
+    List<Model> models = new ArrayList<>(count);
+    for(int i=0; i<count; i++){
+      Model m = new Model();
+      m.set("price", i * 0.25f);
+      models.add(m);
+    }
+
+    ModelCollection col = new ModelCollection();
+    col.addAll(models);
+
+    List<Model> batch = new ArrayList<>(batchSize);
+    for(int i=0; i<batchSize; i++){
+      Model m = new Model();
+      m.set("price", rand.nextFloat() * count * 0.25f);
+      batch.add(m);
+    }
+
+    // "before"; copy and re-sort everything
+    long t = System.nanoTime();
+    List<Model> copy = new ArrayList<>(col);
+    copy.addAll(batch);
+    Collections.sort(copy, byPrice);
+    long resortNanos = System.nanoTime()-t;
+
+    ModelCollection sorted = col.sorted(byPrice, new String[]{ "price" });
+    t = System.nanoTime();
+    col.addAll(batch);
+    long liveNanos = System.nanoTime()-t;
+
+    assertEquals(sorted.size(), count + batchSize);
+    for(int i=1; i<sorted.size(); i++)
+      assertEquals(sorted.get(i-1).getFloat("price") <= sorted.get(i).getFloat("price"), true);
+
+    System.out.println("ModelCollection sorted view with "+count+" models, adding "+batchSize+" in a single batch; "
+      +"re-sort: "+(resortNanos / 1000000)+"ms, live sorted view: "+(liveNanos / 1000000)+"ms");
+  }
+
+  @Test public void groupByCategory(){
+    int count = 50000, categories = 50;
+    List<Model> models = new ArrayList<>();
+    for(int i=0; i<count; i++){
+      Model m = new Model();
+      m.set("id", i);
+      m.set("category", "category"+(i % categories));
+      models.add(m);
+    }
+
+    // "before"; a filtered view per category, each testing every added model
+    ModelCollection filteredSource = new ModelCollection();
+    List<ModelCollection> views = new ArrayList<>();
+    for(int i=0; i<categories; i++)
+      views.add(filteredSource.filtered("category", "category"+i));
+
+    long t = System.nanoTime();
+    for(Model m : models)
+      filteredSource.add(m);
+    long filteredNanos = System.nanoTime()-t;
+
+    ModelCollection groupedSource = new ModelCollection();
+    java.util.Map<String, Collection<Model>> groups = groupedSource.groupBy("category");
+
+    t = System.nanoTime();
+    for(Model m : models)
+      groupedSource.add(m);
+    long groupedNanos = System.nanoTime()-t;
+
+    assertEquals(views.get(7).size(), count / categories);
+    assertEquals(groups.get("category7").size(), count / categories);
+    System.out.println("ModelCollection adding "+count+" models in "+categories+" categories; "
+      +"filtered views: "+(filteredNanos / 1000000)+"ms, groupBy: "+(groupedNanos / 1000000)+"ms");
+  }
+
+  @Test public void aggregatePrices(){
+    int count = 100000, changes = 1000;
+    ModelCollection col = new ModelCollection();
+    for(int i=0; i<count; i++){
+      Model m = new Model();
+      m.set("price", i % 1000);
+      col.add(m);
+    }
+
+    // "before"; recalculating the total and maximum after every change
+    double[] result = new double[2];
+    long t = System.nanoTime();
+    for(int i=0; i<changes; i++){
+      col.get(i * 97 % count).set("price", i);
+      result[0] = 0.0;
+      result[1] = Double.NEGATIVE_INFINITY;
+      col.each((Model m) -> {
+        float price = m.getFloat("price");
+        result[0] += price;
+        result[1] = Math.max(result[1], price);
+      });
+    }
+    long recalcNanos = System.nanoTime()-t;
+
+    ModelAggregate prices = col.aggregate("price");
+    t = System.nanoTime();
+    for(int i=0; i<changes; i++){
+      col.get(i * 97 % count).set("price", i+1);
+      result[0] = prices.sum();
+      result[1] = prices.max();
+    }
+    long liveNanos = System.nanoTime()-t;
+
+    assertEquals(result[1], 1000.0, 0.0);
+    System.out.println("ModelCollection sum and max of "+count+" models after each of "+changes+" changes; "
+      +"recalculated: "+(recalcNanos / 1000000)+"ms, live aggregate: "+(liveNanos / 1000000)+"ms");
+  }
+
+  @Test public void liveFilteredStatus(){
+    int count = 50000, changes = 1000;
+    ModelCollection col = new ModelCollection();
+    for(int i=0; i<count; i++){
+      Model m = new Model();
+      m.set("status", i % 2 == 0 ? "open" : "closed");
+      col.add(m);
+    }
+
+    // "before"; rebuilding the filtered view after every change
+    ModelCollection view = col.filtered("status", "open");
+    long t = System.nanoTime();
+    for(int i=0; i<changes; i++){
+      col.get(i * 2).set("status", "closed");
+      view.stopSync(col);
+      view = col.filtered("status", "open");
+    }
+    long rebuildNanos = System.nanoTime()-t;
+    int rebuiltSize = view.size();
+
+    for(int i=0; i<changes; i++)
+      col.get(i * 2).set("status", "open");
+
+    ModelCollection live = col.liveFiltered("status", "open");
+    t = System.nanoTime();
+    for(int i=0; i<changes; i++)
+      col.get(i * 2).set("status", "closed");
+    long liveNanos = System.nanoTime()-t;
+
+    assertEquals(live.size(), rebuiltSize);
+    System.out.println("ModelCollection filtered view of "+count+" models after each of "+changes+" changes; "
+      +"rebuilt: "+(rebuildNanos / 1000000)+"ms, live filter: "+(liveNanos / 1000000)+"ms");
+  }
+
+  /** CPU-heavy per-model work; generates a ring of vertices around the model's position */
+  private static float[] ringGeometry(Model m){
+    float[] pos = m.getVec3("pos");
+    int segments = 256;
+    float[] vertices = new float[segments * 3];
+    for(int i=0; i<segments; i++){
+      double angle = Math.PI * 2.0 * i / segments;
+      vertices[i*3] = pos[0] + (float)Math.cos(angle);
+      vertices[i*3+1] = pos[1] + (float)Math.sin(angle);
+      vertices[i*3+2] = pos[2];
+    }
+    return vertices;
+  }
+
+  @Test public void parallelMapScaling(){
+    int count = 20000;
+    ModelCollection col = new ModelCollection();
+    for(int i=0; i<count; i++){
+      Model m = new Model();
+      m.set("pos", new float[]{ i, i * 0.5f, 0.0f });
+      col.add(m);
+    }
+
+    // warm up
+    col.parallelMap(ModelCollectionBenchmark::ringGeometry);
+
+    // "before"; sequential each
+    List<float[]> sequential = new ArrayList<>(count);
+    long t = System.nanoTime();
+    col.each((Model m) -> sequential.add(ringGeometry(m)));
+    long sequentialNanos = System.nanoTime()-t;
+    StringBuilder report = new StringBuilder("each: "+(sequentialNanos / 1000000)+"ms");
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for(int threads=1; threads<=cores; threads*=2){
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      t = System.nanoTime();
+      List<float[]> result = col.parallelMap(ModelCollectionBenchmark::ringGeometry, pool);
+      long nanos = System.nanoTime()-t;
+      pool.shutdown();
+
+      assertEquals(result.get(count-1)[0], sequential.get(count-1)[0], 0.0f);
+      report.append(", parallelMap on "+threads+" thread(s): "+(nanos / 1000000)+"ms");
+
+      // always include the highest number of cores
+      if(threads < cores && threads*2 > cores)
+        threads = cores / 2;
+    }
+
+    System.out.println("ModelCollection geometry for "+count+" models; "+report);
+  }
+}
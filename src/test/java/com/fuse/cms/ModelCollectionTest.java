@@ -152,4 +152,366 @@ public class ModelCollectionTest {
       assertEquals(col1.size(), 4);
       assertEquals(col2.get(2), col1.get(3));
     }
+
+    @Test public void createIndex(){
+      ModelCollection col = new ModelCollection();
+      Model m1 = new Model();
+      m1.set("id", "1");
+      col.add(m1);
+      Model m2 = new Model();
+      m2.set("id", "2");
+      col.add(m2);
+
+      // indexes existing models
+      col.createIndex("id");
+      assertEquals(col.getIndex("id") == null, false);
+      assertEquals(col.createIndex("id"), col.getIndex("id"));
+      assertEquals(col.findById("1"), m1);
+      assertEquals(col.findById("2"), m2);
+      assertEquals(col.findById("3"), null);
+
+      // indexes added models
+      Model m3 = new Model();
+      m3.set("id", "3");
+      col.add(m3);
+      assertEquals(col.findById("3"), m3);
+
+      // follows attribute changes
+      m3.set("id", "30");
+      assertEquals(col.findById("3"), null);
+      assertEquals(col.findById("30"), m3);
+
+      // removed models are dropped
+      col.remove(m1);
+      assertEquals(col.findById("1"), null);
+      m1.set("id", "100");
+      assertEquals(col.findById("100"), null);
+
+      // duplicate values
+      m2.set("id", "30");
+      assertEquals(col.findById("30"), m3);
+      assertEquals(col.getIndex("id").findAll("30").size(), 2);
+      assertEquals(col.getIndex("id").findAll("30").get(1), m2);
+      assertEquals(col.getIndex("id").findAll("1").size(), 0);
+      col.remove(m3);
+      assertEquals(col.getIndex("id").findAll("30").size(), 1);
+      assertEquals(col.findById("30"), m2);
+
+      // creates models with the indexed attribute
+      Model m4 = col.findById("4", true);
+      assertEquals(col.findById("4"), m4);
+
+      // loadModel uses the index to find existing models
+      Model m5 = new Model();
+      m5.set("id", "4");
+      m5.set("name", "four");
+      col.loadModel(m5);
+      assertEquals(col.size(), 2);
+      assertEquals(m4.get("name"), "four");
+
+      assertEquals(col.removeIndex("id"), true);
+      assertEquals(col.getIndex("id"), null);
+      assertEquals(m4.getAttributeChangeEvent("id").size(), 0);
+      assertEquals(col.findById("4"), m4);
+    }
+
+    @Test public void setCompactStorage(){
+      ModelCollection col = new ModelCollection();
+      Model m1 = new Model();
+      m1.set("id", "1");
+      col.add(m1);
+      col.setCompactStorage(true);
+      assertEquals(col.getCompactStorage(), true);
+      assertEquals(m1.isCompact(), true);
+
+      assertEquals(col.loadJsonFromFile("testdata/ModelCollectionTest-loadJsonFromFile.json"), true);
+      assertEquals(col.size(), 3);
+      assertEquals(col.get(1).isCompact(), true);
+      assertEquals(col.get(1).get("value"), "2wo");
+      assertEquals(col.get(0).getShape() == col.get(2).getShape(), true);
+
+      col.setCompactStorage(false);
+      Model m4 = new Model();
+      col.add(m4);
+      assertEquals(m4.isCompact(), false);
+    }
+
+    @Test public void sorted(){
+      ModelCollection col = new ModelCollection();
+      for(int price : new int[]{ 30, 10, 20 }){
+        Model m = new Model();
+        m.set("price", price);
+        col.add(m);
+      }
+
+      ModelCollection sorted = col.sorted((Model a, Model b) -> Integer.compare(a.getInt("price"), b.getInt("price")));
+      assertEquals(prices(sorted), "10,20,30");
+
+      // inserted at sorted position
+      Model m = new Model();
+      m.set("price", 15);
+      col.add(m);
+      assertEquals(prices(sorted), "10,15,20,30");
+
+      // moved when the sort attribute changes
+      m.set("price", 35);
+      assertEquals(prices(sorted), "10,20,30,35");
+      m.set("name", "not a sort key");
+      assertEquals(prices(sorted), "10,20,30,35");
+
+      // removed
+      col.remove(col.get(0));
+      assertEquals(prices(sorted), "10,20,35");
+
+      // bulk operations
+      List<Model> more = new ArrayList<>();
+      for(int price : new int[]{ 5, 25, 40, 25 }){
+        Model n = new Model();
+        n.set("price", price);
+        more.add(n);
+      }
+      col.addAll(more);
+      assertEquals(prices(sorted), "5,10,20,25,25,35,40");
+      col.removeAll(more.subList(0, 2));
+      assertEquals(prices(sorted), "10,20,25,35,40");
+
+      // stopped views don't change anymore
+      col.stopTransforms(null);
+      m.set("price", 1);
+      assertEquals(sorted.get(3), m);
+
+      col.clear();
+      assertEquals(sorted.size(), 5);
+    }
+
+    @Test public void sorted_withAttrs(){
+      ModelCollection col = new ModelCollection();
+      List<Model> models = new ArrayList<>();
+      for(int price : new int[]{ 30, 10, 20, 40 }){
+        Model m = new Model();
+        m.set("price", price);
+        models.add(m);
+        col.add(m);
+      }
+
+      int[] compares = new int[]{ 0 };
+      ModelCollection sorted = col.sorted((Model a, Model b) -> {
+        compares[0]++;
+        return Integer.compare(a.getInt("price"), b.getInt("price"));
+      }, new String[]{ "price" });
+      assertEquals(prices(sorted), "10,20,30,40");
+
+      // only changes of the given attributes are observed
+      compares[0] = 0;
+      models.get(0).set("name", "not a sort key");
+      assertEquals(compares[0], 0);
+
+      // models whose price changed before they're moved are still found in their old position
+      models.get(0).beginBatch();
+      models.get(1).beginBatch();
+      models.get(0).set("price", 5);
+      models.get(1).set("price", 50);
+      models.get(0).commitBatch();
+      assertEquals(prices(sorted), "5,50,20,40");
+      models.get(1).commitBatch();
+      assertEquals(prices(sorted), "5,20,40,50");
+
+      col.remove(models.get(1));
+      assertEquals(prices(sorted), "5,20,40");
+    }
+
+    @Test public void sorted_clear(){
+      ModelCollection col = new ModelCollection();
+      Model m = new Model();
+      m.set("price", 10);
+      col.add(m);
+
+      ModelCollection sorted = col.sorted((Model a, Model b) -> Integer.compare(a.getInt("price"), b.getInt("price")));
+      col.clear();
+      assertEquals(sorted.size(), 0);
+      // no longer watched
+      assertEquals(m.attributeChangeEvent().size(), 0);
+    }
+
+    @Test public void groupBy(){
+      ModelCollection col = new ModelCollection();
+      for(String category : new String[]{ "shoes", "hats", "shoes" }){
+        Model m = new Model();
+        m.set("category", category);
+        col.add(m);
+      }
+
+      java.util.Map<String, Collection<Model>> groups = col.groupBy("category");
+      assertEquals(groups.size(), 2);
+      assertEquals(groups.get("shoes").size(), 2);
+      assertEquals(groups.get("hats").size(), 1);
+      assertEquals(groups.get("hats") instanceof ModelCollection, true);
+
+      Model m = new Model();
+      m.set("category", "hats");
+      col.add(m);
+      assertEquals(groups.get("hats").size(), 2);
+
+      // moved to another group when the grouping attribute changes
+      m.set("category", "socks");
+      assertEquals(groups.get("hats").size(), 1);
+      assertEquals(groups.get("socks").get(0), m);
+      m.set("name", "other attribute");
+      assertEquals(groups.get("socks").size(), 1);
+
+      col.remove(m);
+      assertEquals(groups.get("socks").size(), 0);
+      m.set("category", "hats");
+      assertEquals(groups.get("hats").size(), 1);
+
+      // models without the attribute
+      col.add(new Model());
+      assertEquals(groups.get(null).size(), 1);
+
+      col.clear();
+      assertEquals(groups.get("shoes").size(), 0);
+      assertEquals(groups.get(null).size(), 0);
+    }
+
+    @Test public void groupBy_function(){
+      ModelCollection col = new ModelCollection();
+      java.util.Map<Boolean, Collection<Model>> groups = col.groupBy((Model m) -> m.getInt("age") >= 18);
+
+      Model m = new Model();
+      m.set("age", 12);
+      col.add(m);
+      assertEquals(groups.get(false).size(), 1);
+
+      m.set("age", 21);
+      assertEquals(groups.get(false).size(), 0);
+      assertEquals(groups.get(true).size(), 1);
+
+      // stopped groups don't change anymore
+      col.stopTransforms(null);
+      m.set("age", 13);
+      col.add(new Model());
+      assertEquals(groups.get(true).size(), 1);
+      assertEquals(groups.get(false).size(), 0);
+    }
+
+    @Test public void liveFiltered(){
+      ModelCollection col = new ModelCollection();
+      Model m1 = new Model();
+      m1.set("type", "shoe");
+      Model m2 = new Model();
+      m2.set("type", "hat");
+      col.add(m1);
+      col.add(m2);
+
+      ModelCollection shoes = col.liveFiltered("type", "shoe");
+      assertEquals(shoes.size(), 1);
+
+      // models move into and out of the view when the filter attribute changes
+      m2.set("type", "shoe");
+      assertEquals(shoes.size(), 2);
+      assertEquals(shoes.get(1), m2);
+      m1.set("type", "boot");
+      assertEquals(shoes.size(), 1);
+      assertEquals(shoes.get(0), m2);
+
+      Model m3 = new Model();
+      m3.set("type", "shoe");
+      col.add(m3);
+      assertEquals(shoes.size(), 2);
+      col.remove(m3);
+      assertEquals(shoes.size(), 1);
+      assertEquals(m3.getAttributeChangeEvent("type").size(), 0);
+
+      // only the declared attributes are observed
+      ModelCollection expensive = col.liveFiltered((Model m) -> m.getFloat("price") > 10.0f, new String[]{ "price" });
+      assertEquals(expensive.size(), 0);
+      m1.set("price", 20);
+      assertEquals(expensive.size(), 1);
+      // (only the shoes view listens to type changes)
+      assertEquals(m1.getAttributeChangeEvent("type").size(), 1);
+
+      // filters without declared attributes observe all attribute changes
+      ModelCollection named = col.liveFiltered((Model m) -> m.has("name"));
+      m2.set("name", "foo");
+      assertEquals(named.size(), 1);
+
+      col.clear();
+      assertEquals(shoes.size(), 0);
+      assertEquals(expensive.size(), 0);
+      assertEquals(named.size(), 0);
+      assertEquals(m1.getAttributeChangeEvent("price").size(), 0);
+    }
+
+    @Test public void aggregate(){
+      ModelCollection col = new ModelCollection();
+      Model m1 = new Model();
+      m1.set("price", 10);
+      col.add(m1);
+
+      ModelAggregate prices = col.aggregate("price");
+      assertEquals(col.aggregate("price"), prices);
+      List<String> changes = new ArrayList<>();
+      prices.changeEvent().addListener((ModelAggregate agg) -> changes.add(agg.sum()+"/"+agg.min()+"/"+agg.max()));
+
+      // aggregates existing models
+      assertEquals(prices.count(), 1);
+      assertEquals(prices.sum(), 10.0, 0.0);
+      assertEquals(prices.min(), 10.0, 0.0);
+
+      Model m2 = new Model();
+      m2.set("price", 30);
+      Model m3 = new Model();
+      m3.set("price", 20);
+      Model m4 = new Model();
+      m4.set("price", "n/a");
+      col.addAll(java.util.Arrays.asList(m2, m3, m4));
+      // one notification per batch; non-numeric values are ignored
+      assertEquals(changes.size(), 1);
+      assertEquals(prices.count(), 3);
+      assertEquals(prices.sum(), 60.0, 0.0);
+      assertEquals(prices.average(), 20.0, 0.0);
+      assertEquals(prices.min(), 10.0, 0.0);
+      assertEquals(prices.max(), 30.0, 0.0);
+
+      // follows attribute changes
+      m2.set("price", 5);
+      assertEquals(prices.sum(), 35.0, 0.0);
+      assertEquals(prices.min(), 5.0, 0.0);
+      assertEquals(prices.max(), 20.0, 0.0);
+      m4.set("price", 15);
+      assertEquals(prices.count(), 4);
+      assertEquals(changes.size(), 3);
+
+      // only notifies when a value actually changed
+      m2.set("price", "5.0");
+      m2.set("name", "foo");
+      assertEquals(changes.size(), 3);
+
+      col.remove(m3);
+      assertEquals(prices.sum(), 30.0, 0.0);
+      assertEquals(prices.max(), 15.0, 0.0);
+      assertEquals(changes.get(changes.size()-1), "30.0/5.0/15.0");
+      m3.set("price", 100);
+      assertEquals(prices.max(), 15.0, 0.0);
+
+      col.clear();
+      assertEquals(prices.count(), 0);
+      assertEquals(prices.sum(), 0.0, 0.0);
+      assertEquals(prices.average(), 0.0, 0.0);
+      assertEquals(Double.isNaN(prices.min()), true);
+      assertEquals(Double.isNaN(prices.max()), true);
+
+      col.add(m1);
+      assertEquals(prices.sum(), 10.0, 0.0);
+      assertEquals(col.removeAggregate("price"), true);
+      assertEquals(col.removeAggregate("price"), false);
+      assertEquals(m1.getAttributeChangeEvent("price").size(), 0);
+    }
+
+    private String prices(ModelCollection col){
+      List<String> result = new ArrayList<>();
+      for(Model m : col)
+        result.add(m.get("price"));
+      return String.join(",", result);
+    }
 }
@@ -0,0 +1,130 @@
+package com.fuse.cms;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ModelSnapshotTest {
+  @Test public void snapshot(){
+    Model m = new Model();
+    m.set("name", "John");
+    m.set("age", 25);
+    m.set("pos", new float[]{1.0f, 2.0f});
+
+    ModelSnapshot s1 = m.snapshot();
+    assertEquals(s1.size(), 3);
+    assertEquals(s1.get("name"), "John");
+    assertEquals(s1.getInt("age"), 25);
+    assertEquals(s1.getVecX("pos", 2)[1], 2.0f, 0.0f);
+    assertFalse(s1.has("foo"));
+    assertEquals(s1.snapshot(), s1);
+
+    // no changes; same snapshot
+    assertEquals(m.snapshot(), s1);
+
+    m.set("name", "Bob");
+    m.set("pos", new float[]{3.0f, 4.0f});
+    m.set("foo", (String)null);
+
+    ModelSnapshot s2 = m.snapshot();
+    assertNotEquals(s2, s1);
+    assertEquals(s1.get("name"), "John");
+    assertEquals(s1.get("pos"), "1.0,2.0");
+    assertEquals(s1.size(), 3);
+    assertEquals(s2.get("name"), "Bob");
+    assertEquals(s2.get("pos"), "3.0,4.0");
+    assertTrue(s2.has("foo"));
+    assertEquals(s2.get("foo", "bar"), "bar");
+    assertEquals(s2.size(), 4);
+    assertEquals(s2.getAttributeNames().size(), 4);
+
+    // setting the original value again gives the same underlying trie
+    m.set("age", 26);
+    m.set("age", 25);
+    assertEquals(m.snapshot().getTrie(), s2.getTrie());
+  }
+
+  @Test public void typed_reads_dont_change_snapshot(){
+    Model m = new Model();
+    m.set("age", "25");
+    m.set("pos", "1,2,3");
+    ModelSnapshot s = m.snapshot();
+
+    // the first typed reads cache the parsed values
+    assertEquals(m.getInt("age"), 25);
+    assertEquals(m.getFloat("age"), 25.0f, 0.0f);
+    assertEquals(m.getVec3("pos")[2], 3.0f, 0.0f);
+    assertEquals(m.snapshot(), s);
+
+    // compact storage
+    m.useShape(new ModelShape());
+    m.set("name", "John");
+    s = m.snapshot();
+    assertEquals(m.getBool("name"), false);
+    assertEquals(m.snapshot(), s);
+  }
+
+  @Test public void snapshot_is_read_only(){
+    Model m = new Model();
+    m.set("name", "John");
+    ModelSnapshot s = m.snapshot();
+
+    try {
+      s.set("name", "Bob");
+      fail("expected UnsupportedOperationException");
+    } catch(UnsupportedOperationException exc){}
+
+    try {
+      s.copy(m);
+      fail("expected UnsupportedOperationException");
+    } catch(UnsupportedOperationException exc){}
+
+    assertEquals(s.get("name"), "John");
+  }
+
+  @Test public void snapshot_in_other_thread() throws Exception {
+    Model m = new Model();
+    m.set("count", 1);
+    ModelSnapshot s = m.snapshot();
+    m.set("count", 2);
+
+    AtomicReference<String> result = new AtomicReference<>();
+    Thread t = new Thread(() -> result.set(s.get("count")));
+    t.start();
+    t.join();
+
+    assertEquals(result.get(), "1");
+  }
+
+  @Test public void attributeTrie(){
+    AttributeTrie trie = AttributeTrie.EMPTY;
+    Map<String, String> expected = new HashMap<>();
+
+    for(int i=0; i<5000; i++){
+      trie = trie.with("key"+i, "value"+i);
+      expected.put("key"+i, "value"+i);
+    }
+
+    // "Aa" and "BB" have the same hashCode
+    trie = trie.with("Aa", "1").with("BB", "2").with("Aa", "3");
+    expected.put("Aa", "3");
+    expected.put("BB", "2");
+
+    AttributeTrie previous = trie;
+    trie = trie.with("key10", "changed");
+    assertEquals(previous.get("key10"), "value10");
+    assertEquals(trie.get("key10"), "changed");
+    assertEquals(trie.with("key10", "changed"), trie);
+    expected.put("key10", "changed");
+
+    assertEquals(trie.size(), expected.size());
+    Map<String, String> actual = new HashMap<>();
+    trie.each((key, value) -> actual.put(key, value));
+    assertEquals(actual, expected);
+    assertFalse(trie.containsKey("key5000"));
+    assertEquals(trie.get("BB"), "2");
+  }
+}
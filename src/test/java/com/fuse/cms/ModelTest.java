@@ -85,9 +85,11 @@ public class ModelTest {
       strings.clear();
       model.set("name", "Bob");
       assertEquals(joined(), "");
-      assertEquals(model.attributeChangeEvent.size(), 0);
+      assertEquals(model.getAttributeChangeEvent("name").size(), 0);
       model.transformAttribute("name", (String value) -> { strings.add(value); }, true /* active */);
-      assertEquals(model.attributeChangeEvent.size(), 1);
+      assertEquals(model.getAttributeChangeEvent("name").size(), 1);
+      // attribute transformers only listen to their own attribute
+      assertEquals(model.attributeChangeEvent.size(), 0);
       assertEquals(joined(), "Bob");
       model.set("name", "Bobby");
       assertEquals(joined(), "BobBobby");
@@ -97,9 +99,9 @@ public class ModelTest {
       Model m = new Model();
       strings.clear();
       m.set("name", "Bob");
-      assertEquals(m.attributeChangeEvent.size(), 0);
+      assertEquals(m.getAttributeChangeEvent("name").size(), 0);
       m.transformAttribute("name", (String value) -> { strings.add(value); }, false /* inactive */);
-      assertEquals(m.attributeChangeEvent.size(), 0);
+      assertEquals(m.getAttributeChangeEvent("name").size(), 0);
       m.set("name", "Bobby");
       assertEquals(joined(), "Bob");
     }
@@ -218,9 +220,9 @@ public class ModelTest {
     m.follow(followSourceModel);
     assertEquals(followSourceModel.attributeChangeEvent.size(), 1);
 
-    assertEquals(m.attributeChangeEvent.size(), 0);
+    assertEquals(m.getAttributeChangeEvent("abc").size(), 0);
     m.transformAttribute("abc", (String val) -> {});
-    assertEquals(m.attributeChangeEvent.size(), 1);
+    assertEquals(m.getAttributeChangeEvent("abc").size(), 1);
 
     assertEquals(m.changeEvent.size(), 0);
     m.transform((ModelBase mb) -> {});
@@ -230,6 +232,44 @@ public class ModelTest {
 
     assertEquals(followSourceModel.attributeChangeEvent.size(), 0);
     assertEquals(m.attributeChangeEvent.size(), 0);
+    assertEquals(m.getAttributeChangeEvent("abc").size(), 0);
     assertEquals(m.changeEvent.size(), 0);
   }
+
+  @Test public void getAttributeChangeEvent(){
+    strings = new ArrayList<String>();
+    Model m = new Model();
+    m.getAttributeChangeEvent("title").addListener((ModelBase.AttributeChangeArgs args) -> {
+      strings.add(args.attr+"="+args.value);
+    }, this);
+
+    m.set("name", "Bob");
+    assertEquals(joined(","), "");
+    m.set("title", "Sir");
+    assertEquals(joined(","), "title=Sir");
+    m.batch((ModelBase mb) -> { mb.set("title", "Dr"); mb.set("name", "Jim"); });
+    assertEquals(joined(","), "title=Sir,title=Dr");
+
+    m.removeAttributeListeners("title", this);
+    m.set("title", "Mr");
+    assertEquals(joined(","), "title=Sir,title=Dr");
+  }
+
+  @Test public void parseJson_triggers_transform_once(){
+    strings = new ArrayList<String>();
+    Model m = new Model();
+    m.transform((ModelBase mb) -> {
+      strings.add(mb.get("name", "-")+"/"+mb.get("age", "-"));
+    });
+    assertEquals(joined(","), "-/-");
+    m.parseJson("{\"name\": \"Bob\", \"age\": 25}");
+    assertEquals(joined(","), "-/-,Bob/25");
+
+    // merge applies all attributes as a single batch too
+    Model source = new Model();
+    source.set("name", "Jim");
+    source.set("age", "40");
+    m.merge(source);
+    assertEquals(joined(","), "-/-,Bob/25,Jim/40");
+  }
 }